@@ -17,6 +17,9 @@
 
 package org.craftercms.deployer.aws.kinesis;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -27,6 +30,7 @@ import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IShutdownNotificationAware;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
 import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
@@ -38,12 +42,11 @@ import com.amazonaws.services.kinesis.model.Record;
  *
  * @author joseross
  */
-public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor {
+public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor, IShutdownNotificationAware {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractKinesisRecordProcessor.class);
 
     private static final long BACKOFF_TIME_IN_MILLIS = 3000L;
-    private static final long CHECKPOINT_INTERVAL_MILLIS = 60000L;
 
     /**
      * Maximum retries for processing a record set (negative value indicates to retry indefinitely until successful)
@@ -55,21 +58,50 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
      */
     protected final int maxCheckpointRetries;
     
-    protected long nextCheckpointTimeInMillis;
     protected String kinesisShardId;
+
+    /**
+     * Decides when to checkpoint, by default every 60 seconds
+     */
+    protected CheckpointPolicy checkpointPolicy = new TimeCheckpointPolicy();
+
+    /**
+     * Progress made since the last checkpoint
+     */
+    protected final CheckpointProgress checkpointProgress = new CheckpointProgress();
+
+    /**
+     * Progress of the batch currently being processed, used to retry only the records not yet acknowledged
+     */
+    protected BatchProgress currentBatch;
+
+    /**
+     * Last record such that it and all previous records of the shard have been processed (or bypassed after the
+     * maximum number of attempts), it is the position used for checkpoints
+     */
+    protected volatile Record lastProcessedRecord;
+
+    /**
+     * Last record included in a successful checkpoint
+     */
+    protected volatile Record lastCheckpointedRecord;
     
     public AbstractKinesisRecordProcessor(int maxProcessingRetries, int maxCheckpointRetries) {
     	this.maxProcessingRetries = maxProcessingRetries;
     	this.maxCheckpointRetries = maxCheckpointRetries;
     }
 
+    public void setCheckpointPolicy(final CheckpointPolicy checkpointPolicy) {
+        this.checkpointPolicy = checkpointPolicy;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void initialize(final InitializationInput initializationInput) {
         kinesisShardId = initializationInput.getShardId();
-        nextCheckpointTimeInMillis = getNextCheckpointTime();
+        checkpointProgress.reset(System.currentTimeMillis());
         logger.info("Starting with shardId '{}'", kinesisShardId);
     }
 
@@ -78,28 +110,140 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
      */
     @Override
     public void processRecords(final ProcessRecordsInput processRecordsInput) {
+        processBatch(processRecordsInput);
+    }
+
+    /**
+     * Processes a set of records with retries, and checkpoints when required by the {@link CheckpointPolicy}.
+     * @param processRecordsInput the records to process
+     */
+    protected void processBatch(final ProcessRecordsInput processRecordsInput) {
         List<Record> records = processRecordsInput.getRecords();
         logger.info("Processing {} record(s) from {}", records.size(), kinesisShardId);
 
+        currentBatch = new BatchProgress(records);
         for(int i= 0; isInfiniteAttempts(maxProcessingRetries) || i <= maxProcessingRetries; i++) {
-	        if(tryProcessRecords(records)) {
-	            if (System.currentTimeMillis() > nextCheckpointTimeInMillis) {
-	                checkpoint(processRecordsInput.getCheckpointer());
-	                nextCheckpointTimeInMillis = getNextCheckpointTime();
+	        List<Record> pending = currentBatch.getPending();
+	        if(i > 0) {
+	        	logger.info("Retrying {} of {} record(s) from {}", pending.size(), records.size(), kinesisShardId);
+	        }
+	        boolean successful = tryProcessRecords(pending);
+	        if(!successful && shouldIsolateFailures()) {
+	        	isolateFailures(pending);
+	        	successful = currentBatch.isComplete();
+	        }
+	        if(successful) {
+	        	currentBatch.acknowledgeAll();
+	        	updateProcessedRecord(currentBatch.getLastContiguous());
+	            checkpointProgress.add(records.size(), getSize(records), processRecordsInput.getMillisBehindLatest());
+	            long now = System.currentTimeMillis();
+	            // if no checkpoint is written the progress keeps growing, so it is attempted again with the next batch
+	            if (checkpointPolicy.isCheckpointRequired(checkpointProgress, now) &&
+	                checkpoint(processRecordsInput.getCheckpointer(), getCheckpointRecord(processRecordsInput))) {
+	                checkpointProgress.reset(now);
 	            }
 	            handleProcessRecordsSuccess(processRecordsInput);
 	            break;
 	        } else {
+	        	updateProcessedRecord(currentBatch.getLastContiguous());
 	        	if(!isInfiniteAttempts(maxProcessingRetries) && i >= maxProcessingRetries) {
+	        		// keep the partial progress in case the lease moves before the next checkpoint
+	        		checkpointProgress(processRecordsInput.getCheckpointer());
 	        		handleProcessRecordsFailure(processRecordsInput, i+1);
+	        		if (!records.isEmpty()) {
+	        			updateProcessedRecord(records.get(records.size() - 1));
+	        			checkpointProgress.add(records.size(), getSize(records),
+	        				processRecordsInput.getMillisBehindLatest());
+	        		}
+	        	} else if (Thread.currentThread().isInterrupted()) {
+	        		logger.warn("Interrupted while processing kinesis stream records from {}", kinesisShardId);
+	        		break;
 	        	} else {
 		        	logger.warn("Unable to process kinesis stream records - attempt {}", i+1);
-		        	sleep();
+		        	backoff(i);
 	        	}
 	        }
         }
     }
 
+    /**
+     * Indicates if the last failed attempt was caused by the records themselves (for example invalid data) instead
+     * of a transient condition. In that case retrying will not help, so the failing records are isolated instead.
+     * @return true if the failing records should be isolated
+     */
+    protected boolean shouldIsolateFailures() {
+        return false;
+    }
+
+    /**
+     * Splits a failing set of records in halves, processing each one separately until the records causing the
+     * failure are found and handled by {@link #handlePoisonRecord(Record)}. All other records are processed.
+     * @param records records that failed together
+     */
+    protected void isolateFailures(final List<Record> records) {
+        List<Record> pending = getPending(records);
+        if (pending.size() == 1) {
+            Record record = pending.get(0);
+            if (handlePoisonRecord(record)) {
+                acknowledge(record);
+            }
+            return;
+        }
+        int middle = pending.size() / 2;
+        for (List<Record> half : Arrays.asList(pending.subList(0, middle), pending.subList(middle, pending.size()))) {
+            List<Record> halfPending = getPending(half);
+            if (halfPending.isEmpty()) {
+                continue;
+            }
+            if (tryProcessRecords(halfPending)) {
+                halfPending.forEach(this::acknowledge);
+            } else if (shouldIsolateFailures()) {
+                isolateFailures(halfPending);
+            } else {
+                // not caused by the records anymore, the remaining ones will be retried
+                return;
+            }
+        }
+    }
+
+    private List<Record> getPending(final List<Record> records) {
+        List<Record> pending = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (currentBatch == null || !currentBatch.isAcknowledged(record)) {
+                pending.add(record);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Any desired handling for a record that can't be processed.
+     * @param record the record
+     * @return true if the record should be skipped, false to keep retrying it
+     */
+    protected boolean handlePoisonRecord(final Record record) {
+        logger.error("Record {} from {} can't be processed and will be skipped", record.getSequenceNumber(),
+            kinesisShardId);
+        return true;
+    }
+
+    private void updateProcessedRecord(final Record record) {
+        if (record != null) {
+            lastProcessedRecord = record;
+        }
+    }
+
+    /**
+     * Marks a record of the current batch as processed, so it will not be included if the batch is retried.
+     * Implementations should call this as soon as a record no longer needs to be sent to the index.
+     * @param record the processed record
+     */
+    protected void acknowledge(final Record record) {
+        if (currentBatch != null) {
+            currentBatch.acknowledge(record);
+        }
+    }
+
     /**
      * Any desired handling following successfully processing records
      * @param processRecordsInput
@@ -130,6 +274,33 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
             } catch (Exception e) {
                 logger.error("Error creating checkpoint during shutdown", e);
             }
+        } else if (shutdownInput.getShutdownReason() == ShutdownReason.REQUESTED) {
+            try {
+                checkpointProgress(shutdownInput.getCheckpointer());
+            } catch (Exception e) {
+                logger.error("Error creating checkpoint during shutdown", e);
+            }
+        }
+    }
+
+    /**
+     * Checkpoints the processed records before the lease is released, so the next owner of the shard doesn't
+     * need to process them again.
+     */
+    @Override
+    public void shutdownRequested(final IRecordProcessorCheckpointer checkpointer) {
+        logger.info("Shutdown requested for shard {}", kinesisShardId);
+        checkpointProgress(checkpointer);
+    }
+
+    /**
+     * Checkpoints up to the last processed record, if it has not been checkpointed already.
+     * @param checkpointer Instance of {@link IRecordProcessorCheckpointer}
+     */
+    protected void checkpointProgress(final IRecordProcessorCheckpointer checkpointer) {
+        Record record = lastProcessedRecord;
+        if (record != null && record != lastCheckpointedRecord) {
+            checkpoint(checkpointer, record);
         }
     }
 
@@ -137,13 +308,41 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
      *  Performs the actual checkpoint operation with retries.
      *
      * @param checkpointer Instance of {@link IRecordProcessorCheckpointer}
+     * @return true if the checkpoint was written
+     */
+    protected boolean checkpoint(IRecordProcessorCheckpointer checkpointer) {
+        return checkpoint(checkpointer, null);
+    }
+
+    /**
+     *  Performs the actual checkpoint operation with retries, up to a given record.
+     *
+     * @param checkpointer Instance of {@link IRecordProcessorCheckpointer}
+     * @param record the last processed record, if null all records delivered to the processor are checkpointed
+     * @return true if the checkpoint was written, or if there was nothing new to checkpoint
      */
-    protected void checkpoint(IRecordProcessorCheckpointer checkpointer) {
+    protected boolean checkpoint(IRecordProcessorCheckpointer checkpointer, Record record) {
+        if (record != null && record == lastCheckpointedRecord) {
+            logger.debug("No records processed in shard {} since the last checkpoint", kinesisShardId);
+            return true;
+        }
+        if (!beforeCheckpoint()) {
+            logger.warn("Skipping checkpoint for shard {}, processed records are not durable yet", kinesisShardId);
+            return false;
+        }
         logger.info("Checkpointing shard " + kinesisShardId);
         for (int i = 0; isInfiniteAttempts(maxCheckpointRetries) || i <= maxCheckpointRetries; i++) {
             try {
-                checkpointer.checkpoint();
-                break;
+                if (record == null) {
+                    checkpointer.checkpoint();
+                    lastCheckpointedRecord = lastProcessedRecord;
+                } else {
+                    logger.debug("Checkpointing shard {} at sequence number {}", kinesisShardId,
+                        record.getSequenceNumber());
+                    checkpointer.checkpoint(record);
+                    lastCheckpointedRecord = record;
+                }
+                return true;
             } catch (ShutdownException se) {
                 // Ignore checkpoint if the processor instance has been shutdown (fail over).
                 logger.info("Caught shutdown exception, skipping checkpoint.", se);
@@ -152,6 +351,9 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
                 // Backoff and re-attempt checkpoint upon transient failures
                 if (!isInfiniteAttempts(maxCheckpointRetries) && i >= maxCheckpointRetries) {
                 	handleCheckpointFailure(checkpointer, i+1, e);
+                } else if (Thread.currentThread().isInterrupted()) {
+                    logger.warn("Interrupted while checkpointing shard {}", kinesisShardId);
+                    break;
                 } else {
                     logger.info("Transient issue when checkpointing - attempt " + (i+1)
                     		+ (isInfiniteAttempts(maxCheckpointRetries) ? "" : " of " + maxCheckpointRetries), e);
@@ -163,6 +365,24 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
                 break;
             }
         }
+        return false;
+    }
+
+    /**
+     * Provides the record to checkpoint after a set of records has been processed.
+     * @param processRecordsInput the processed records
+     * @return the last record that can be checkpointed, null to checkpoint all records delivered to the processor
+     */
+    protected Record getCheckpointRecord(final ProcessRecordsInput processRecordsInput) {
+        return lastProcessedRecord;
+    }
+
+    /**
+     * Any desired handling before a checkpoint is created, for example making sure processed records are durable.
+     * @return true if the checkpoint can be created, false to skip it
+     */
+    protected boolean beforeCheckpoint() {
+        return true;
     }
 
     /**
@@ -176,11 +396,23 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
 	}
 
     /**
-     * @return ms time of next checkpoint interval
+     * @return total size in bytes of the given records, used by the {@link CheckpointPolicy}
      */
-	protected long getNextCheckpointTime() {
-		return System.currentTimeMillis() + CHECKPOINT_INTERVAL_MILLIS;
-	}
+    protected long getSize(final List<Record> records) {
+        long size = 0;
+        for (Record record : records) {
+            size += getSize(record);
+        }
+        return size;
+    }
+
+    /**
+     * @return size in bytes of the given record, 0 if unknown
+     */
+    protected long getSize(final Record record) {
+        ByteBuffer data = record.getData();
+        return data != null ? data.remaining() : 0;
+    }
 
 	/**
 	 * @param val number of check
@@ -190,6 +422,14 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
     	return val < 0;
     }
 
+    /**
+     * Waits before retrying the processing of records, by default using {@link #sleep()}
+     * @param attempt 0 based number of the attempt that failed
+     */
+    protected void backoff(final int attempt) {
+        sleep();
+    }
+
     /**
      * Sleep between attempts for checkpoints or retrying processing of records
      */
@@ -198,11 +438,13 @@ public abstract class AbstractKinesisRecordProcessor implements IRecordProcessor
 		    Thread.sleep(BACKOFF_TIME_IN_MILLIS);
 		} catch (InterruptedException e) {
 		    logger.debug("Interrupted sleep", e);
+		    Thread.currentThread().interrupt();
 		}
 	}
 
     /**
-     * Performs the actual processing of the received records.
+     * Performs the actual processing of the received records. When retrying, only the records that were not
+     * acknowledged in previous attempts are provided.
      * 
      * @param records List of records to process
      * @return true if processed successfully, false if processing should be re-attempted
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks which records of a batch have already been acknowledged, so that retries only resubmit the records that
+ * are still pending. Records are compared by identity since the same batch instances are used in every attempt.
+ */
+public class BatchProgress {
+
+    /**
+     * All records in the batch, in stream order
+     */
+    protected final List<Record> records;
+
+    /**
+     * Records that don't need to be processed again
+     */
+    protected final Set<Record> acknowledged;
+
+    public BatchProgress(final List<Record> records) {
+        this.records = records;
+        this.acknowledged = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    /**
+     * Marks a record as processed, it will not be included in further attempts.
+     * @param record the processed record
+     */
+    public void acknowledge(final Record record) {
+        acknowledged.add(record);
+    }
+
+    /**
+     * Marks all records of the batch as processed.
+     */
+    public void acknowledgeAll() {
+        acknowledged.addAll(records);
+    }
+
+    public boolean isAcknowledged(final Record record) {
+        return acknowledged.contains(record);
+    }
+
+    /**
+     * @return records not yet acknowledged, in stream order
+     */
+    public List<Record> getPending() {
+        List<Record> pending = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (!acknowledged.contains(record)) {
+                pending.add(record);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the last record such that it and all previous records in the batch have been acknowledged, null if the
+     * first record is still pending
+     */
+    public Record getLastContiguous() {
+        Record last = null;
+        for (Record record : records) {
+            if (!acknowledged.contains(record)) {
+                break;
+            }
+            last = record;
+        }
+        return last;
+    }
+
+    public int getAcknowledgedCount() {
+        return acknowledged.size();
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isComplete() {
+        return acknowledged.size() == records.size();
+    }
+
+}
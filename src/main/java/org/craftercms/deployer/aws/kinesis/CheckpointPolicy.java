@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+/**
+ * Decides when a record processor should checkpoint its progress. Checkpoints are writes to the lease table, so
+ * checkpointing less often reduces cost at the expense of reprocessing more records after a failover.
+ *
+ * <p>Implementations should be stateless, a single instance is shared by all processors.</p>
+ */
+@FunctionalInterface
+public interface CheckpointPolicy {
+
+    /**
+     * Indicates if a checkpoint should be created after a set of records has been processed.
+     * @param progress the progress made since the last checkpoint
+     * @param now current time
+     * @return true if the processor should checkpoint
+     */
+    boolean isCheckpointRequired(CheckpointProgress progress, long now);
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+/**
+ * Progress made by a record processor since its last checkpoint, used by {@link CheckpointPolicy} implementations.
+ */
+public class CheckpointProgress {
+
+    /**
+     * Value used when the lag of the processor is unknown
+     */
+    public static final long UNKNOWN_LAG = -1;
+
+    protected long lastCheckpointMillis;
+    protected long records;
+    protected long bytes;
+    protected long millisBehindLatest = UNKNOWN_LAG;
+
+    /**
+     * Adds a processed set of records.
+     * @param count number of records
+     * @param size total size of the records in bytes
+     * @param millisBehindLatest lag reported by the KCL, null if unknown
+     */
+    public void add(final long count, final long size, final Long millisBehindLatest) {
+        records += count;
+        bytes += size;
+        this.millisBehindLatest = millisBehindLatest != null ? millisBehindLatest : UNKNOWN_LAG;
+    }
+
+    /**
+     * Starts tracking progress from a new checkpoint.
+     * @param now time of the checkpoint
+     */
+    public void reset(final long now) {
+        lastCheckpointMillis = now;
+        records = 0;
+        bytes = 0;
+    }
+
+    public long getMillisSinceLastCheckpoint(final long now) {
+        return now - lastCheckpointMillis;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the lag reported for the last set of records, {@link #UNKNOWN_LAG} if not available
+     */
+    public long getMillisBehindLatest() {
+        return millisBehindLatest;
+    }
+
+}
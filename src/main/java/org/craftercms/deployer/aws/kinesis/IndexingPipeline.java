@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decouples the KCL record fetch thread from indexing. Batches go through two stages, each one running on its own
+ * thread and connected by bounded queues:
+ * <ol>
+ *     <li>decode: converts the records to the operations that will be sent to the index</li>
+ *     <li>index: sends the operations, commits and checkpoints</li>
+ * </ol>
+ * Batches are always indexed in the order they were received, so checkpoints never move past a record that has not
+ * been processed. When the queues are full {@link #submit(ProcessRecordsInput)} blocks, which stops the KCL from
+ * fetching more records until the index catches up.
+ */
+public class IndexingPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexingPipeline.class);
+
+    /**
+     * Name used for the stage threads
+     */
+    protected final String name;
+
+    /**
+     * Batches waiting to be decoded
+     */
+    protected final BlockingQueue<ProcessRecordsInput> decodeQueue;
+
+    /**
+     * Decoded batches waiting to be indexed
+     */
+    protected final BlockingQueue<PreparedBatch> indexQueue;
+
+    /**
+     * Converts the records of a batch, the result is passed to the indexer
+     */
+    protected final Function<ProcessRecordsInput, Map<Record, Object>> decoder;
+
+    /**
+     * Indexes a decoded batch
+     */
+    protected final BiConsumer<ProcessRecordsInput, Map<Record, Object>> indexer;
+
+    /**
+     * Number of batches submitted but not indexed yet
+     */
+    protected int inFlight;
+
+    protected volatile boolean running;
+    protected Thread decodeThread;
+    protected Thread indexThread;
+
+    public IndexingPipeline(final String name, final int queueSize,
+                            final Function<ProcessRecordsInput, Map<Record, Object>> decoder,
+                            final BiConsumer<ProcessRecordsInput, Map<Record, Object>> indexer) {
+        this.name = name;
+        this.decodeQueue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.indexQueue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.decoder = decoder;
+        this.indexer = indexer;
+    }
+
+    /**
+     * Starts the stage threads.
+     */
+    public synchronized void start() {
+        running = true;
+        decodeThread = new Thread(this::runDecodeStage, name + "-decode");
+        indexThread = new Thread(this::runIndexStage, name + "-index");
+        decodeThread.setDaemon(true);
+        indexThread.setDaemon(true);
+        decodeThread.start();
+        indexThread.start();
+    }
+
+    /**
+     * Adds a batch to the pipeline, blocking while the pipeline is full.
+     * @param input the batch received from the KCL
+     * @throws InterruptedException if interrupted while waiting for space in the pipeline
+     */
+    public void submit(final ProcessRecordsInput input) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("Pipeline " + name + " is not running");
+        }
+        synchronized (this) {
+            inFlight++;
+        }
+        try {
+            decodeQueue.put(input);
+        } catch (InterruptedException e) {
+            completed();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all submitted batches have been indexed.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void drain() throws InterruptedException {
+        logger.debug("Waiting for {} batch(es) in pipeline {}", inFlight, name);
+        while (running && inFlight > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Stops the stage threads, any batch not indexed yet is discarded.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (inFlight > 0) {
+            logger.info("Discarding {} batch(es) in pipeline {}", inFlight, name);
+        }
+        decodeThread.interrupt();
+        indexThread.interrupt();
+        decodeQueue.clear();
+        indexQueue.clear();
+        inFlight = 0;
+        notifyAll();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    protected synchronized void completed() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        notifyAll();
+    }
+
+    protected void runDecodeStage() {
+        try {
+            while (running) {
+                ProcessRecordsInput input = decodeQueue.take();
+                Map<Record, Object> prepared;
+                try {
+                    prepared = decoder.apply(input);
+                } catch (RuntimeException e) {
+                    // records will be decoded again by the index stage
+                    logger.error("Error decoding records in pipeline {}", name, e);
+                    prepared = Collections.emptyMap();
+                }
+                indexQueue.put(new PreparedBatch(input, prepared));
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Decode stage of pipeline {} interrupted", name);
+        }
+    }
+
+    protected void runIndexStage() {
+        try {
+            while (running) {
+                PreparedBatch batch = indexQueue.take();
+                try {
+                    indexer.accept(batch.input, batch.prepared);
+                } catch (RuntimeException e) {
+                    logger.error("Error indexing records in pipeline {}", name, e);
+                } finally {
+                    completed();
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Index stage of pipeline {} interrupted", name);
+        }
+    }
+
+    /**
+     * A batch that has been through the decode stage.
+     */
+    protected static class PreparedBatch {
+
+        protected final ProcessRecordsInput input;
+        protected final Map<Record, Object> prepared;
+
+        protected PreparedBatch(final ProcessRecordsInput input, final Map<Record, Object> prepared) {
+            this.input = input;
+            this.prepared = prepared;
+        }
+
+    }
+
+}
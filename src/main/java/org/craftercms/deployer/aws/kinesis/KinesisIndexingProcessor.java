@@ -18,13 +18,36 @@
 package org.craftercms.deployer.aws.kinesis;
 
 import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
 import com.amazonaws.services.kinesis.model.Record;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.craftercms.deployer.aws.utils.AwsConfig;
+import org.craftercms.deployer.aws.utils.BulkIndexingSink;
+import org.craftercms.deployer.aws.utils.IndexedDocumentCache;
+import org.craftercms.deployer.aws.utils.IndexingOperation;
+import org.craftercms.deployer.aws.utils.IndexingSpool;
+import org.craftercms.deployer.aws.utils.SearchCircuitBreaker;
+import org.craftercms.deployer.aws.utils.SearchCommitter;
 import org.craftercms.deployer.aws.utils.SearchHelper;
 import org.craftercms.search.exception.SearchException;
-import org.craftercms.search.exception.SearchServerException;
 import org.craftercms.search.service.SearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +63,16 @@ public class KinesisIndexingProcessor extends AbstractKinesisRecordProcessor {
 
 	private static final Logger logger = LoggerFactory.getLogger(KinesisIndexingProcessor.class);
 
+	/**
+	 * Marks records that were decoded by the pipeline but have nothing to index
+	 */
+	private static final Object NO_OPERATION = new Object();
+
+	/**
+	 * Maximum time to wait for the spool to be replayed before adding new changes to it
+	 */
+	private static final long SPOOL_DRAIN_TIMEOUT_MILLIS = 10000L;
+
 	/**
 	 * Site to index data for.
 	 */
@@ -50,11 +83,82 @@ public class KinesisIndexingProcessor extends AbstractKinesisRecordProcessor {
 	 */
 	private boolean isDynamo;
 
+	/**
+	 * Name of the DynamoDB table the stream belongs to, used to select the document mapping
+	 */
+	private String tableName;
+
 	/**
 	 * When true, processing will allow individual records to fail indexing (for example to bypass invalid data)
 	 */
 	private boolean continueOnError;
 
+	/**
+	 * When true, DynamoDb records of a batch are collapsed to the last event for each document before indexing
+	 */
+	private boolean coalesceRecords = Boolean.parseBoolean(AwsConfig.COALESCE_RECORDS_DEFAULT);
+
+	/**
+	 * Maximum number of workers used to index a single batch, a value of 1 indexes records in order on the
+	 * record processor thread
+	 */
+	private int indexingThreads = 1;
+
+	/**
+	 * Maximum number of documents sent to the index in a single batch
+	 */
+	private int bulkMaxDocuments = BulkIndexingSink.DEFAULT_MAX_BATCH_DOCUMENTS;
+
+	/**
+	 * Maximum estimated size of the documents sent to the index in a single batch
+	 */
+	private long bulkMaxBytes = BulkIndexingSink.DEFAULT_MAX_BATCH_BYTES;
+
+	/**
+	 * When true, records are decoded and indexed on separate threads so that the KCL can keep fetching records
+	 */
+	private boolean pipelineEnabled = Boolean.parseBoolean(AwsConfig.PIPELINE_ENABLED_DEFAULT);
+
+	/**
+	 * Maximum number of batches waiting on each stage of the pipeline
+	 */
+	private int pipelineQueueSize = Integer.parseInt(AwsConfig.PIPELINE_QUEUE_SIZE_DEFAULT);
+
+	/**
+	 * When true, records that fail to index are isolated from the rest of the batch and skipped
+	 */
+	private boolean isolateFailures;
+
+	/**
+	 * File where isolated records are kept, if null they are only logged
+	 */
+	private RecordQuarantine recordQuarantine;
+
+	/**
+	 * Spool for the changes received while the search server is unavailable, if null records are retried instead
+	 */
+	private IndexingSpool spool;
+
+	/**
+	 * Size in bytes below which new changes wait for the spool to be replayed instead of being added to it
+	 */
+	private long spoolDrainThresholdBytes = Long.parseLong(AwsConfig.SPOOL_DRAIN_THRESHOLD_BYTES_DEFAULT);
+
+	/**
+	 * Records that failed in the last attempt because of their own data, with the corresponding error
+	 */
+	private final Map<Record, Exception> recordFailures = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	/**
+	 * Indicates if the last attempt failed because of a condition that can go away on retry
+	 */
+	private volatile boolean transientFailure;
+
+	/**
+	 * Worker pool for parallel indexing, shared by all processors created by the same factory
+	 */
+	private ExecutorService executorService;
+
 	/**
 	 * Instance of search service
 	 */
@@ -66,6 +170,41 @@ public class KinesisIndexingProcessor extends AbstractKinesisRecordProcessor {
 	 */
     private SearchHelper searchHelper;
 
+	/**
+	 * Collapses multiple events for the same document
+	 */
+    private RecordCoalescer recordCoalescer;
+
+	/**
+	 * Drops MODIFY events without relevant changes, if null all events are indexed
+	 */
+    private ModifyEventFilter modifyEventFilter;
+
+	/**
+	 * Content of the documents already indexed, if null all operations are sent
+	 */
+    private IndexedDocumentCache documentCache;
+
+	/**
+	 * Decides when indexed changes are committed, by default after every batch
+	 */
+    private SearchCommitter searchCommitter;
+
+	/**
+	 * Circuit breaker for the search server, shared with all other processors
+	 */
+    private SearchCircuitBreaker circuitBreaker = SearchCircuitBreaker.getShared();
+
+	/**
+	 * Pipeline used when {@link #pipelineEnabled} is true, created when the processor is initialized
+	 */
+    private IndexingPipeline pipeline;
+
+	/**
+	 * Operations decoded by the pipeline for the batch currently being indexed
+	 */
+    private volatile Map<Record, Object> preparedOperations;
+
 	public KinesisIndexingProcessor(final String siteName,
 			final int maxProcessingRetries, final int maxCheckpointRetries,
 			final boolean isDynamo, final boolean continueOnError,
@@ -76,6 +215,103 @@ public class KinesisIndexingProcessor extends AbstractKinesisRecordProcessor {
 		this.continueOnError = continueOnError;
 		this.searchService = searchService;
 		this.searchHelper = searchHelper;
+		this.recordCoalescer = new RecordCoalescer(searchHelper);
+		this.searchCommitter = new SearchCommitter(searchService, siteName);
+	}
+
+	public void setTableName(final String tableName) {
+		this.tableName = tableName;
+		this.recordCoalescer.setTableName(tableName);
+	}
+
+	public void setCoalesceRecords(final boolean coalesceRecords) {
+		this.coalesceRecords = coalesceRecords;
+	}
+
+	public void setModifyEventFilter(final ModifyEventFilter modifyEventFilter) {
+		this.modifyEventFilter = modifyEventFilter;
+	}
+
+	public void setDocumentCache(final IndexedDocumentCache documentCache) {
+		this.documentCache = documentCache;
+	}
+
+	public void setSearchCommitter(final SearchCommitter searchCommitter) {
+		this.searchCommitter = searchCommitter;
+	}
+
+	public void setCircuitBreaker(final SearchCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public void setBulkMaxDocuments(final int bulkMaxDocuments) {
+		this.bulkMaxDocuments = bulkMaxDocuments;
+	}
+
+	public void setBulkMaxBytes(final long bulkMaxBytes) {
+		this.bulkMaxBytes = bulkMaxBytes;
+	}
+
+	public void setExecutorService(final ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	public void setIndexingThreads(final int indexingThreads) {
+		this.indexingThreads = indexingThreads;
+	}
+
+	public void setIsolateFailures(final boolean isolateFailures) {
+		this.isolateFailures = isolateFailures;
+	}
+
+	public void setRecordQuarantine(final RecordQuarantine recordQuarantine) {
+		this.recordQuarantine = recordQuarantine;
+	}
+
+	public void setSpool(final IndexingSpool spool) {
+		this.spool = spool;
+	}
+
+	public void setSpoolDrainThresholdBytes(final long spoolDrainThresholdBytes) {
+		this.spoolDrainThresholdBytes = spoolDrainThresholdBytes;
+	}
+
+	public void setPipelineEnabled(final boolean pipelineEnabled) {
+		this.pipelineEnabled = pipelineEnabled;
+	}
+
+	public void setPipelineQueueSize(final int pipelineQueueSize) {
+		this.pipelineQueueSize = pipelineQueueSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(final InitializationInput initializationInput) {
+		super.initialize(initializationInput);
+		if (pipelineEnabled) {
+			pipeline = new IndexingPipeline("kinesis-" + siteName + "-" + kinesisShardId, pipelineQueueSize,
+				this::prepareOperations, this::indexPrepared);
+			pipeline.start();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void processRecords(final ProcessRecordsInput processRecordsInput) {
+		if (pipeline == null) {
+			super.processRecords(processRecordsInput);
+			return;
+		}
+		try {
+			pipeline.submit(processRecordsInput);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for the indexing pipeline of shard {}", kinesisShardId);
+		}
 	}
 
 	/**
@@ -84,46 +320,474 @@ public class KinesisIndexingProcessor extends AbstractKinesisRecordProcessor {
 	@Override
 	protected boolean tryProcessRecords(final List<Record> records) {
 		logger.debug("Trying to processing records for '{}'...", siteName);
+		recordFailures.clear();
+		transientFailure = false;
+
+		List<Record> pending = records;
+		if (isDynamo && modifyEventFilter != null) {
+			pending = modifyEventFilter.filter(pending);
+		}
+		if (isDynamo && coalesceRecords) {
+			pending = recordCoalescer.coalesce(pending);
+		}
+		acknowledgeSuperseded(records, pending);
+
+		AtomicInteger indexed = new AtomicInteger();
+		boolean successful;
+		if (executorService != null && indexingThreads > 1 && pending.size() > 1) {
+			successful = processInParallel(pending, indexed);
+		} else {
+			successful = processInOrder(pending, indexed);
+		}
+		// even if the batch failed some documents could have reached the index
+		searchCommitter.changesIndexed(indexed.get());
+		if (!successful) {
+			return false;
+		}
+
+		try {
+			searchCommitter.commitIfRequired();
+		} catch (SearchException e) {
+			if (spool != null && spool.isActive()) {
+				// all records were indexed or spooled, changes will be committed once the server recovers
+				logger.debug("Search server is presently unavailable to commit data updates", e);
+				return true;
+			}
+			logger.warn("Search server is presently unavailable to commit data updates", e);
+			transientFailure = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Waits using the shared circuit breaker, so that processors of all shards back off together while the search
+	 * server is unavailable instead of retrying at a fixed interval.
+	 */
+	@Override
+	protected void backoff(final int attempt) {
+		if (transientFailure && spool != null && spool.isActive() && spool.isAvailable()) {
+			// pending records will be spooled right away
+			return;
+		}
+		circuitBreaker.awaitRetry(attempt);
+	}
+
+	/**
+	 * Failing records are isolated only when the failures were caused by their data, if the search server is
+	 * unavailable all records are retried.
+	 */
+	@Override
+	protected boolean shouldIsolateFailures() {
+		return isolateFailures && !transientFailure && !recordFailures.isEmpty();
+	}
+
+	/**
+	 * Adds the record to the quarantine file before skipping it, if the file can't be written the record is retried.
+	 */
+	@Override
+	protected boolean handlePoisonRecord(final Record record) {
+		if (recordQuarantine == null) {
+			return super.handlePoisonRecord(record);
+		}
+		try {
+			recordQuarantine.add(kinesisShardId, record, recordFailures.get(record));
+			return true;
+		} catch (IOException e) {
+			logger.error("Unable to quarantine record {} from {}, it will be retried", record.getSequenceNumber(),
+				kinesisShardId, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Commits all pending changes, so that records are never checkpointed before they are durable in the index.
+	 */
+	@Override
+	protected boolean beforeCheckpoint() {
+		try {
+			searchCommitter.commitPending();
+			return true;
+		} catch (SearchException e) {
+			logger.warn("Search server is presently unavailable to commit data updates", e);
+			return false;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void shutdown(final ShutdownInput shutdownInput) {
+		if (pipeline != null) {
+			stopPipeline(shutdownInput.getShutdownReason());
+		}
+		if (shutdownInput.getShutdownReason() != ShutdownReason.TERMINATE) {
+			// terminate will commit as part of the final checkpoint
+			beforeCheckpoint();
+		}
+		super.shutdown(shutdownInput);
+	}
+
+	/**
+	 * Waits for the queued batches before checkpointing, so that their progress is not lost.
+	 */
+	@Override
+	public void shutdownRequested(final IRecordProcessorCheckpointer checkpointer) {
+		if (pipeline != null) {
+			try {
+				pipeline.drain();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while draining the indexing pipeline of shard {}", kinesisShardId);
+			}
+		}
+		super.shutdownRequested(checkpointer);
+	}
+
+	/**
+	 * Stops the pipeline, waiting for the queued batches unless the lease has been lost.
+	 */
+	protected void stopPipeline(final ShutdownReason reason) {
+		if (reason != ShutdownReason.ZOMBIE) {
+			try {
+				pipeline.drain();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while draining the indexing pipeline of shard {}", kinesisShardId);
+			}
+		}
+		// another worker owns the shard now, queued batches will be processed by it
+		pipeline.stop();
+	}
+
+	/**
+	 * Decode stage of the pipeline, converts the records of a batch to indexing operations.
+	 * @param processRecordsInput the batch to decode
+	 * @return the operation, {@link #NO_OPERATION} or the decoding error for each record
+	 */
+	protected Map<Record, Object> prepareOperations(final ProcessRecordsInput processRecordsInput) {
+		List<Record> records = processRecordsInput.getRecords();
+		// skipped and superseded records don't need to be decoded, they will be dropped again by the index stage
+		if (isDynamo && modifyEventFilter != null) {
+			records = modifyEventFilter.filter(records);
+		}
+		if (isDynamo && coalesceRecords) {
+			records = recordCoalescer.coalesce(records);
+		}
+		Map<Record, Object> prepared = new IdentityHashMap<>(records.size());
+		for (Record record : records) {
+			try {
+				IndexingOperation operation = decodeOperation(record);
+				prepared.put(record, operation != null ? operation : NO_OPERATION);
+			} catch (Exception e) {
+				prepared.put(record, e);
+			}
+		}
+		return prepared;
+	}
+
+	/**
+	 * Index stage of the pipeline, processes a decoded batch with the usual retries and checkpoints.
+	 * @param processRecordsInput the batch to index
+	 * @param prepared the result of {@link #prepareOperations(ProcessRecordsInput)}
+	 */
+	protected void indexPrepared(final ProcessRecordsInput processRecordsInput, final Map<Record, Object> prepared) {
+		preparedOperations = prepared;
+		try {
+			processBatch(processRecordsInput);
+		} finally {
+			preparedOperations = null;
+		}
+	}
+
+	/**
+	 * Indexes the given records on the current thread.
+	 * @param records records to index
+	 * @param indexed counter of documents sent to the index
+	 * @return true if all records were acknowledged
+	 */
+	protected boolean processInOrder(final List<Record> records, final AtomicInteger indexed) {
+		return indexRecords(records, indexed, new AtomicBoolean(false));
+	}
+
+	/**
+	 * Indexes the given records using the worker pool. Records are partitioned by document id so that events for
+	 * the same document are always indexed in order by the same worker.
+	 * @param records records to index
+	 * @param indexed counter of documents sent to the index
+	 * @return true if all records were acknowledged
+	 */
+	protected boolean processInParallel(final List<Record> records, final AtomicInteger indexed) {
+		List<List<Record>> lanes = partition(records, Math.min(indexingThreads, records.size()));
+		logger.debug("Indexing {} record(s) using {} workers", records.size(), lanes.size());
+
+		// shared by all workers, there is no point on sending more requests once the server is unavailable
+		AtomicBoolean searchUnavailable = new AtomicBoolean(false);
+		List<Future<Boolean>> results = new ArrayList<>(lanes.size());
+		for (List<Record> lane : lanes) {
+			results.add(executorService.submit(() -> indexRecords(lane, indexed, searchUnavailable)));
+		}
+
+		boolean successful = true;
+		for (Future<Boolean> result : results) {
+			try {
+				successful &= result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while waiting for indexing workers");
+				transientFailure = true;
+				return false;
+			} catch (ExecutionException e) {
+				logger.error("Indexing worker failed", e.getCause());
+				transientFailure = true;
+				successful = false;
+			}
+		}
+		return successful;
+	}
+
+	/**
+	 * Waits for the spool to be replayed once the search server is available and the backlog is small, so that new
+	 * changes go back to being indexed directly instead of only through the replay. While the backlog is larger the
+	 * changes keep being spooled, and once the spool is full records are retried, which holds back the shards.
+	 * @return true if the spool is empty
+	 */
+	protected boolean drainSpool() {
+		if (circuitBreaker.getState() != SearchCircuitBreaker.State.CLOSED ||
+			spool.getTotalBytes() > spoolDrainThresholdBytes) {
+			return false;
+		}
+		try {
+			return spool.awaitDrained(SPOOL_DRAIN_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Sends the given records to the index using a {@link BulkIndexingSink} and acknowledges the ones that don't
+	 * need further attempts. If a spool is configured, operations that can't be sent because the search server is
+	 * unavailable are written to it, along with all the operations that follow them, and their records acknowledged
+	 * as well.
+	 * @param records records to index, in order
+	 * @param indexed counter of documents sent to the index
+	 * @param searchUnavailable flag set when the search server is unavailable
+	 * @return true if all records were acknowledged
+	 */
+	protected boolean indexRecords(final List<Record> records, final AtomicInteger indexed,
+								   final AtomicBoolean searchUnavailable) {
+		BulkIndexingSink<Record> sink =
+			new BulkIndexingSink<>(searchService, searchHelper, siteName, bulkMaxDocuments, bulkMaxBytes);
+		sink.setCircuitBreaker(circuitBreaker);
+		sink.setDocumentCache(documentCache);
+		boolean successful = true;
+
+		// while the spool has entries all changes go through it, so that they reach the index in order
+		boolean spooling = spool != null && spool.isActive() && !drainSpool();
+		List<IndexingOperation> spooled = new ArrayList<>();
+		List<Record> spooledRecords = new ArrayList<>();
 
 		for (Record record : records) {
+			if (!spooling && searchUnavailable.get()) {
+				successful = false;
+				break;
+			}
 			try {
-				if (isDynamo) {
-					com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
-					String event = dynamoRecord.getEventName();
-					logger.debug("Processing record {}", event);
-					switch (event) {
-					case "REMOVE":
-						searchHelper.delete(searchService, siteName, dynamoRecord);
-						break;
-					case "INSERT":
-					case "MODIFY":
-						searchHelper.update(searchService, siteName, searchHelper.getDocFromDynamo(dynamoRecord));
-						break;
-					default:
-						logger.debug("No defined handling for event {}", event);
-					}
+				IndexingOperation operation = createOperation(record);
+				if (operation != null && spooling) {
+					spooled.add(operation);
+					spooledRecords.add(record);
+				} else if (operation != null) {
+					sink.add(operation, record);
 				} else {
-					searchHelper.update(searchService, siteName, searchHelper.getDocFromKinesis(record));
+					acknowledge(record);
 				}
-			} catch (SearchServerException e) {
-				logger.warn("Search server is presently unavailable to index data", e);
-				return false;
 			} catch (Exception e) {
 				logger.error("Processing of record failed", e);
 				if (!continueOnError) {
-					return false;
+					recordFailures.put(record, e);
+					successful = false;
+					break;
 				}
+				acknowledge(record);
 			}
 		}
-		
-		try {
-			logger.debug("Committing all changes for site '{}'", siteName);
-			searchService.commit(siteName);
-		} catch (SearchException e) {
-			logger.warn("Search server is presently unavailable to commit data updates", e);
-			return false;
+
+		// later changes for a failed document can't be acknowledged, they need to be sent again after the retry
+		Set<String> failedIds = new HashSet<>();
+		// once an operation is spooled all the following ones are spooled too, even if they reached the index,
+		// otherwise the replay of an older change could overwrite a newer one
+		boolean spoolRemaining = false;
+		for (BulkIndexingSink.Result<Record> result : sink.flush()) {
+			String id = result.getOperation().getId();
+			if (result.isSuccessful() && spoolRemaining && !failedIds.contains(id)) {
+				// the change is committed by the replay
+				spooled.add(result.getOperation());
+				spooledRecords.add(result.getSource());
+			} else if (result.isSuccessful()) {
+				if (!result.isSkipped()) {
+					indexed.incrementAndGet();
+				}
+				if (failedIds.contains(id)) {
+					successful = false;
+				} else {
+					acknowledge(result.getSource());
+				}
+			} else if (result.isSearchUnavailable()) {
+				if (!searchUnavailable.getAndSet(true)) {
+					logger.warn("Search server is presently unavailable to index data", result.getFailure());
+				}
+				transientFailure = true;
+				if (spool != null && !failedIds.contains(id)) {
+					spooled.add(result.getOperation());
+					spooledRecords.add(result.getSource());
+					spoolRemaining = true;
+				} else {
+					failedIds.add(id);
+					successful = false;
+				}
+			} else {
+				logger.error("Processing of record failed", result.getFailure());
+				if (continueOnError) {
+					acknowledge(result.getSource());
+				} else {
+					recordFailures.put(result.getSource(), result.getFailure());
+					failedIds.add(id);
+					successful = false;
+				}
+			}
 		}
 
-		return true;
+		if (!spooled.isEmpty()) {
+			if (documentCache != null) {
+				// the index will only have these changes once the spool is replayed
+				spooled.forEach(operation -> documentCache.invalidate(operation.getId()));
+			}
+			if (spool.append(spooled)) {
+				logger.debug("Spooled {} operation(s) for site '{}'", spooled.size(), siteName);
+				spooledRecords.forEach(this::acknowledge);
+			} else {
+				logger.warn("Unable to spool {} operation(s) for site '{}', records will be retried",
+					spooled.size(), siteName);
+				transientFailure = true;
+				successful = false;
+			}
+		}
+		return successful;
+	}
+
+	/**
+	 * Provides the operation that needs to be sent to the index for a record, using the one already decoded by the
+	 * pipeline if available.
+	 * @param record the record to convert
+	 * @return the operation, or null if there is nothing to index for the record
+	 * @throws Exception if the record can't be converted
+	 */
+	protected IndexingOperation createOperation(final Record record) throws Exception {
+		Map<Record, Object> prepared = preparedOperations;
+		Object operation = prepared != null ? prepared.get(record) : null;
+		if (operation == null) {
+			return decodeOperation(record);
+		} else if (operation == NO_OPERATION) {
+			return null;
+		} else if (operation instanceof Exception) {
+			throw (Exception) operation;
+		}
+		return (IndexingOperation) operation;
+	}
+
+	/**
+	 * Converts a record to the operation that needs to be sent to the index.
+	 * @param record the record to convert
+	 * @return the operation, or null if there is nothing to index for the record
+	 * @throws Exception if the record can't be converted
+	 */
+	protected IndexingOperation decodeOperation(final Record record) throws Exception {
+		if (isDynamo) {
+			com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
+			String event = dynamoRecord.getEventName();
+			logger.debug("Processing record {}", event);
+			switch (event) {
+			case "REMOVE":
+				return searchHelper.createDelete(siteName, tableName, dynamoRecord);
+			case "INSERT":
+			case "MODIFY":
+				return searchHelper.createUpdate(siteName, searchHelper.getDocFromDynamo(tableName, dynamoRecord));
+			default:
+				logger.debug("No defined handling for event {}", event);
+				return null;
+			}
+		} else {
+			return searchHelper.createUpdate(siteName, searchHelper.getDocFromKinesis(record));
+		}
+	}
+
+	/**
+	 * Splits the records in lanes by the document id (or partition key), keeping the original order in each lane.
+	 */
+	protected List<List<Record>> partition(final List<Record> records, final int laneCount) {
+		List<List<Record>> lanes = new ArrayList<>(laneCount);
+		for (int i = 0; i < laneCount; i++) {
+			lanes.add(new ArrayList<>());
+		}
+		for (Record record : records) {
+			String key = getOrderingKey(record);
+			int lane = key == null ? 0 : Math.floorMod(key.hashCode(), laneCount);
+			lanes.get(lane).add(record);
+		}
+		lanes.removeIf(List::isEmpty);
+		return lanes;
+	}
+
+	/**
+	 * @return the key used to keep related records in order, null if it can't be resolved
+	 */
+	protected String getOrderingKey(final Record record) {
+		if (isDynamo && record instanceof RecordAdapter) {
+			com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
+			if (dynamoRecord != null) {
+				String id = searchHelper.getId(tableName, dynamoRecord);
+				if (id != null) {
+					return id;
+				}
+			}
+		}
+		return record.getPartitionKey();
+	}
+
+	/**
+	 * Uses the size reported by DynamoDb, the data of a DynamoDb stream record is only serialized when requested.
+	 */
+	@Override
+	protected long getSize(final Record record) {
+		if (isDynamo && record instanceof RecordAdapter) {
+			com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
+			if (dynamoRecord != null && dynamoRecord.getDynamodb() != null &&
+				dynamoRecord.getDynamodb().getSizeBytes() != null) {
+				return dynamoRecord.getDynamodb().getSizeBytes();
+			}
+			return 0;
+		}
+		return super.getSize(record);
+	}
+
+	/**
+	 * Acknowledges the records that were dropped by the coalescing stage, their changes are covered by the
+	 * remaining records for the same documents.
+	 */
+	protected void acknowledgeSuperseded(final List<Record> records, final List<Record> pending) {
+		if (records.size() == pending.size()) {
+			return;
+		}
+		Set<Record> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		kept.addAll(pending);
+		for (Record record : records) {
+			if (!kept.contains(record)) {
+				acknowledge(record);
+			}
+		}
 	}
 }
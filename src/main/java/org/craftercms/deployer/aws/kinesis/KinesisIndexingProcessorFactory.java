@@ -21,8 +21,27 @@ import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcess
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessorFactory;
 import com.amazonaws.services.kinesis.model.Record;
 
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.craftercms.deployer.aws.utils.AwsConfig;
+import org.craftercms.deployer.aws.utils.CommitPolicy;
+import org.craftercms.deployer.aws.utils.DaemonThreadFactory;
+import org.craftercms.deployer.aws.utils.DocumentMapping;
+import org.craftercms.deployer.aws.utils.IndexedDocumentCache;
+import org.craftercms.deployer.aws.utils.IndexingSpool;
+import org.craftercms.deployer.aws.utils.RecordDataDecoder;
+import org.craftercms.deployer.aws.utils.SearchCircuitBreaker;
+import org.craftercms.deployer.aws.utils.SearchCommitter;
 import org.craftercms.deployer.aws.utils.SearchHelper;
+import org.craftercms.deployer.aws.utils.SpoolReplayer;
 import org.craftercms.search.service.SearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -69,6 +88,162 @@ public class KinesisIndexingProcessorFactory implements IRecordProcessorFactory,
 	@Value("${" + AwsConfig.AWS_SECTION + "." + AwsConfig.CONTINUE_ON_ERROR_CONFIG_KEY + ":" + AwsConfig.CONTINUE_ON_ERROR_DEFAULT + "}")
 	private boolean skipFailingRecords;
 
+	/**
+	 * Format of the data of Kinesis Data Stream records: json or cbor
+	 */
+	@Value("${" + AwsConfig.PAYLOAD_FORMAT_KEY + ":" + AwsConfig.PAYLOAD_FORMAT_DEFAULT + "}")
+	private String payloadFormat;
+
+	/**
+	 * When true, DynamoDb records of a batch are collapsed to the last event for each document before indexing
+	 */
+	@Value("${" + AwsConfig.COALESCE_RECORDS_KEY + ":" + AwsConfig.COALESCE_RECORDS_DEFAULT + "}")
+	private boolean coalesceRecords;
+
+	/**
+	 * When true, DynamoDb MODIFY records that don't change any of {@link #modifyFilterFields} are skipped
+	 */
+	@Value("${" + AwsConfig.MODIFY_FILTER_ENABLED_KEY + ":" + AwsConfig.MODIFY_FILTER_ENABLED_DEFAULT + "}")
+	private boolean modifyFilterEnabled;
+
+	/**
+	 * Fields compared by the MODIFY filter, if empty all attributes are compared
+	 */
+	@Value("${" + AwsConfig.MODIFY_FILTER_FIELDS_KEY + ":}")
+	private String[] modifyFilterFields;
+
+	/**
+	 * Maximum number of documents remembered to skip unchanged updates (0 disables the cache)
+	 */
+	@Value("${" + AwsConfig.KINESIS_DEDUPE_MAX_ENTRIES_KEY + ":" + AwsConfig.DEDUPE_MAX_ENTRIES_DEFAULT + "}")
+	private int dedupeMaxEntries;
+
+	/**
+	 * Maximum number of workers used to index a single batch (1 indicates records are indexed in order)
+	 */
+	@Value("${" + AwsConfig.INDEXING_THREADS_KEY + ":" + AwsConfig.INDEXING_THREADS_DEFAULT + "}")
+	private int indexingThreads;
+
+	/**
+	 * Name of the checkpoint policy: time, records, bytes or lag
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_POLICY_KEY + ":" + AwsConfig.CHECKPOINT_POLICY_DEFAULT + "}")
+	private String checkpointPolicyName;
+
+	/**
+	 * Time in milliseconds between checkpoints for the time and lag policies
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_INTERVAL_KEY + ":" + AwsConfig.CHECKPOINT_INTERVAL_DEFAULT + "}")
+	private long checkpointIntervalMillis;
+
+	/**
+	 * Number of records between checkpoints for the records policy
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_MAX_RECORDS_KEY + ":" + AwsConfig.CHECKPOINT_MAX_RECORDS_DEFAULT + "}")
+	private long checkpointMaxRecords;
+
+	/**
+	 * Size in bytes of the records between checkpoints for the bytes policy
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_MAX_BYTES_KEY + ":" + AwsConfig.CHECKPOINT_MAX_BYTES_DEFAULT + "}")
+	private long checkpointMaxBytes;
+
+	/**
+	 * Time in milliseconds between checkpoints while catching up for the lag policy
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_CATCH_UP_INTERVAL_KEY + ":" + AwsConfig.CHECKPOINT_CATCH_UP_INTERVAL_DEFAULT + "}")
+	private long checkpointCatchUpIntervalMillis;
+
+	/**
+	 * Lag in milliseconds from which a processor is considered to be catching up for the lag policy
+	 */
+	@Value("${" + AwsConfig.CHECKPOINT_LAG_THRESHOLD_KEY + ":" + AwsConfig.CHECKPOINT_LAG_THRESHOLD_DEFAULT + "}")
+	private long checkpointLagThresholdMillis;
+
+	/**
+	 * When true, records that fail to index are isolated from their batch and added to a quarantine file
+	 */
+	@Value("${" + AwsConfig.QUARANTINE_ENABLED_KEY + ":" + AwsConfig.QUARANTINE_ENABLED_DEFAULT + "}")
+	private boolean quarantineEnabled;
+
+	/**
+	 * Folder for the quarantine file
+	 */
+	@Value("${" + AwsConfig.QUARANTINE_FOLDER_KEY + ":" + AwsConfig.QUARANTINE_FOLDER_DEFAULT + "}")
+	private String quarantineFolder;
+
+	/**
+	 * When true, records are decoded and indexed on separate threads so that the KCL can keep fetching records
+	 */
+	@Value("${" + AwsConfig.PIPELINE_ENABLED_KEY + ":" + AwsConfig.PIPELINE_ENABLED_DEFAULT + "}")
+	private boolean pipelineEnabled;
+
+	/**
+	 * Maximum number of batches waiting on each stage of the pipeline
+	 */
+	@Value("${" + AwsConfig.PIPELINE_QUEUE_SIZE_KEY + ":" + AwsConfig.PIPELINE_QUEUE_SIZE_DEFAULT + "}")
+	private int pipelineQueueSize;
+
+	/**
+	 * When true, changes are written to a spool on disk while the search server is unavailable
+	 */
+	@Value("${" + AwsConfig.SPOOL_ENABLED_KEY + ":" + AwsConfig.SPOOL_ENABLED_DEFAULT + "}")
+	private boolean spoolEnabled;
+
+	/**
+	 * Parent folder for the spool, each site uses its own subfolder
+	 */
+	@Value("${" + AwsConfig.SPOOL_FOLDER_KEY + ":" + AwsConfig.SPOOL_FOLDER_DEFAULT + "}")
+	private String spoolFolder;
+
+	/**
+	 * Size in bytes from which a new spool segment is started
+	 */
+	@Value("${" + AwsConfig.SPOOL_MAX_SEGMENT_BYTES_KEY + ":" + AwsConfig.SPOOL_MAX_SEGMENT_BYTES_DEFAULT + "}")
+	private long spoolMaxSegmentBytes;
+
+	/**
+	 * Maximum size in bytes of the spool, once reached records are retried instead
+	 */
+	@Value("${" + AwsConfig.SPOOL_MAX_BYTES_KEY + ":" + AwsConfig.SPOOL_MAX_BYTES_DEFAULT + "}")
+	private long spoolMaxBytes;
+
+	/**
+	 * Size in bytes below which new changes wait for the spool to be replayed instead of being added to it
+	 */
+	@Value("${" + AwsConfig.SPOOL_DRAIN_THRESHOLD_BYTES_KEY + ":" + AwsConfig.SPOOL_DRAIN_THRESHOLD_BYTES_DEFAULT + "}")
+	private long spoolDrainThresholdBytes;
+
+	/**
+	 * Maximum number of documents sent to the index in a single batch
+	 */
+	@Value("${" + AwsConfig.KINESIS_BULK_MAX_DOCUMENTS_KEY + ":" + AwsConfig.BULK_MAX_DOCUMENTS_DEFAULT + "}")
+	private int bulkMaxDocuments;
+
+	/**
+	 * Maximum estimated size of the documents sent to the index in a single batch
+	 */
+	@Value("${" + AwsConfig.KINESIS_BULK_MAX_BYTES_KEY + ":" + AwsConfig.BULK_MAX_BYTES_DEFAULT + "}")
+	private long bulkMaxBytes;
+
+	/**
+	 * Maximum number of uncommitted documents (0 disables the limit)
+	 */
+	@Value("${" + AwsConfig.COMMIT_MAX_DOCUMENTS_KEY + ":0}")
+	private int commitMaxDocuments;
+
+	/**
+	 * Maximum time in milliseconds a change can stay uncommitted when a batch completes (0 disables the limit)
+	 */
+	@Value("${" + AwsConfig.COMMIT_MAX_AGE_KEY + ":0}")
+	private long commitMaxAgeMillis;
+
+	/**
+	 * Time in milliseconds after the first uncommitted change when a background commit is triggered (0 disables it)
+	 */
+	@Value("${" + AwsConfig.COMMIT_WITHIN_KEY + ":0}")
+	private long commitWithinMillis;
+
     /**
      * Instance of the {@link SearchService}.
      */
@@ -77,26 +252,203 @@ public class KinesisIndexingProcessorFactory implements IRecordProcessorFactory,
 	private SearchService searchService; 
     
     private SearchHelper searchHelper = new SearchHelper();
+
+    /**
+     * Configuration of the target, used to read the document mappings. It is always provided by the deployer for
+     * the target context, so it is required to avoid ignoring the mappings without notice.
+     */
+    @SuppressWarnings("rawtypes")
+    @Autowired
+    private HierarchicalConfiguration targetConfig;
+
+    /**
+     * Checkpoint policy shared by all processors
+     */
+    private CheckpointPolicy checkpointPolicy;
+
+    /**
+     * Filter for MODIFY records shared by all processors
+     */
+    private ModifyEventFilter modifyEventFilter;
+
+    /**
+     * Content of the indexed documents, shared by all processors of the site
+     */
+    private IndexedDocumentCache documentCache;
+
+    /**
+     * Quarantine file shared by all processors
+     */
+    private RecordQuarantine recordQuarantine;
+
+    /**
+     * Spool shared by all processors while the search server is unavailable
+     */
+    private IndexingSpool spool;
+
+    /**
+     * Sends spooled changes once the search server recovers
+     */
+    private SpoolReplayer spoolReplayer;
+
+    /**
+     * Worker pool shared by all processors when indexing in parallel
+     */
+    private ExecutorService executorService;
+
+    /**
+     * Tracks uncommitted changes for all processors of the site
+     */
+    private SearchCommitter searchCommitter;
+
+    /**
+     * Scheduler for deferred commits
+     */
+    private ScheduledExecutorService commitScheduler;
     
     /**
      * {@inheritDoc}
      */
     public IRecordProcessor createProcessor() {
-        return new KinesisIndexingProcessor(siteName, maxProcessingRetries, maxCheckpointRetries,
-        		isDynamo, skipFailingRecords,
+        return createProcessor(null);
+    }
+
+    /**
+     * Provides a factory for the processors of a given stream, so that they can use the document mapping defined
+     * for its table.
+     * @param stream the ARN of the stream
+     * @return the factory
+     */
+    public IRecordProcessorFactory forStream(final String stream) {
+        String tableName = isDynamo ? SearchHelper.getTableName(stream) : null;
+        return () -> createProcessor(tableName);
+    }
+
+    protected KinesisIndexingProcessor createProcessor(final String tableName) {
+        KinesisIndexingProcessor processor = new KinesisIndexingProcessor(siteName, maxProcessingRetries,
+        		maxCheckpointRetries, isDynamo, skipFailingRecords,
         		searchService, searchHelper);
+        processor.setTableName(tableName);
+        processor.setCoalesceRecords(coalesceRecords);
+        processor.setModifyEventFilter(modifyEventFilter);
+        processor.setDocumentCache(documentCache);
+        processor.setIndexingThreads(indexingThreads);
+        processor.setBulkMaxDocuments(bulkMaxDocuments);
+        processor.setBulkMaxBytes(bulkMaxBytes);
+        processor.setExecutorService(executorService);
+        processor.setSearchCommitter(searchCommitter);
+        processor.setPipelineEnabled(pipelineEnabled);
+        processor.setPipelineQueueSize(pipelineQueueSize);
+        processor.setCheckpointPolicy(checkpointPolicy);
+        processor.setIsolateFailures(quarantineEnabled);
+        processor.setRecordQuarantine(recordQuarantine);
+        processor.setSpool(spool);
+        processor.setSpoolDrainThresholdBytes(spoolDrainThresholdBytes);
+        return processor;
     }
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
-        logger.info("Kinesis record processors for site {} will be created using: processing max retries: {}, checkpoint max retries: {}, using dynamo: {}, skip failed records: {}",
+        checkpointPolicy = createCheckpointPolicy();
+        if (isDynamo) {
+            Map<String, DocumentMapping> mappings =
+                DocumentMapping.fromConfiguration(targetConfig.configurationsAt(AwsConfig.KINESIS_MAPPINGS_KEY));
+            if (!mappings.isEmpty()) {
+                logger.info("Using document mappings for tables {}", mappings.keySet());
+            }
+            searchHelper.setDocumentMappings(mappings);
+        }
+        if (isDynamo && modifyFilterEnabled) {
+            modifyEventFilter = new ModifyEventFilter(Arrays.asList(modifyFilterFields));
+        }
+        if (!isDynamo) {
+            searchHelper.setKinesisPayloadFormat(RecordDataDecoder.getFormat(payloadFormat));
+        }
+        if (dedupeMaxEntries > 0) {
+            documentCache = IndexedDocumentCache.getShared(siteName, dedupeMaxEntries);
+        }
+        if (quarantineEnabled) {
+            recordQuarantine = new RecordQuarantine(Paths.get(quarantineFolder), siteName);
+        }
+        if (indexingThreads > 1) {
+            executorService =
+                Executors.newFixedThreadPool(indexingThreads, new DaemonThreadFactory("kinesis-index-" + siteName));
+        }
+        CommitPolicy commitPolicy = new CommitPolicy(commitMaxDocuments, commitMaxAgeMillis, commitWithinMillis);
+        if (commitPolicy.getCommitWithinMillis() > 0) {
+            commitScheduler =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("kinesis-commit-" + siteName));
+        }
+        searchCommitter = new SearchCommitter(searchService, siteName, commitPolicy, commitScheduler);
+        if (spoolEnabled) {
+            spool = new IndexingSpool(Paths.get(spoolFolder, siteName), spoolMaxSegmentBytes, spoolMaxBytes);
+            spool.open();
+            spoolReplayer = new SpoolReplayer(spool, searchService, searchHelper, siteName, searchCommitter,
+                SearchCircuitBreaker.getShared());
+            spoolReplayer.start();
+        }
+        logger.info("Kinesis record processors for site {} will be created using: processing max retries: {}, checkpoint max retries: {}, checkpoint: {}, using dynamo: {}, payload format: {}, skip failed records: {}, coalesce records: {}, modify filter: {}, dedupe cache: {}, indexing threads: {}, quarantine: {}, spool: {}, pipeline: {}, bulk batches: {} documents/{} bytes, commit: {}",
         		siteName,
         		getRetryDescription(maxProcessingRetries),
         		getRetryDescription(maxCheckpointRetries),
+        		checkpointPolicy,
         		isDynamo,
-        		skipFailingRecords);
+        		isDynamo ? "n/a" : payloadFormat,
+        		skipFailingRecords,
+        		coalesceRecords,
+        		modifyEventFilter != null ?
+        			(modifyEventFilter.getFields().isEmpty() ? "all fields" : modifyEventFilter.getFields()) : "disabled",
+        		documentCache != null ? documentCache.getCapacity() + " entries" : "disabled",
+        		indexingThreads,
+        		quarantineEnabled ? recordQuarantine.getFile() : "disabled",
+        		spoolEnabled ? spool.getFolder() : "disabled",
+        		pipelineEnabled ? "enabled (queue size " + pipelineQueueSize + ")" : "disabled",
+        		bulkMaxDocuments,
+        		bulkMaxBytes,
+        		commitPolicy);
     }
 
+    /**
+     * Stops replaying the spool, commits any pending changes and stops the shared worker pools.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (spoolReplayer != null) {
+            spoolReplayer.stop();
+        }
+        if (documentCache != null) {
+            logger.info("Dedupe cache for site {}: {}", siteName, documentCache);
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+        if (searchCommitter != null) {
+            searchCommitter.close();
+        }
+        if (commitScheduler != null) {
+            commitScheduler.shutdown();
+        }
+    }
+
+	private CheckpointPolicy createCheckpointPolicy() {
+		switch (checkpointPolicyName) {
+		case AwsConfig.CHECKPOINT_POLICY_TIME:
+			return new TimeCheckpointPolicy(checkpointIntervalMillis);
+		case AwsConfig.CHECKPOINT_POLICY_RECORDS:
+			return new RecordCountCheckpointPolicy(checkpointMaxRecords);
+		case AwsConfig.CHECKPOINT_POLICY_BYTES:
+			return new ByteCountCheckpointPolicy(checkpointMaxBytes);
+		case AwsConfig.CHECKPOINT_POLICY_LAG:
+			return new LagAwareCheckpointPolicy(checkpointIntervalMillis, checkpointCatchUpIntervalMillis,
+				checkpointLagThresholdMillis);
+		default:
+			throw new IllegalArgumentException("Unknown checkpoint policy '" + checkpointPolicyName + "'");
+		}
+	}
+
 	private String getRetryDescription(int attempts) {
 		return AbstractKinesisRecordProcessor.isInfiniteAttempts(attempts) ? "indefinite" : (attempts + " attempts");
 	}
@@ -113,7 +113,11 @@ public class KinesisWorkerManager {
             if(useMetrics) {
                 configuration.withMetricsLevel(metricsLevel);
             }
-            Worker.Builder builder = new Worker.Builder().recordProcessorFactory(processorFactory).config(configuration);
+            IRecordProcessorFactory factory = processorFactory;
+            if(processorFactory instanceof KinesisIndexingProcessorFactory) {
+                factory = ((KinesisIndexingProcessorFactory) processorFactory).forStream(stream);
+            }
+            Worker.Builder builder = new Worker.Builder().recordProcessorFactory(factory).config(configuration);
             if(!useMetrics) {
                 builder.metricsFactory(new NullMetricsFactory());
             }
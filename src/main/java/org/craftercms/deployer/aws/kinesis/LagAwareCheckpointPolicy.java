@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+/**
+ * Implementation of {@link CheckpointPolicy} that checkpoints more often while the processor is far behind the tip
+ * of the stream. When catching up each interval covers many more records, so a failover would replay more data.
+ */
+public class LagAwareCheckpointPolicy implements CheckpointPolicy {
+
+    /**
+     * Time in milliseconds between checkpoints while the processor is close to the tip of the stream
+     */
+    protected final long intervalMillis;
+
+    /**
+     * Time in milliseconds between checkpoints while the processor is catching up
+     */
+    protected final long catchUpIntervalMillis;
+
+    /**
+     * Lag in milliseconds from which the processor is considered to be catching up
+     */
+    protected final long lagThresholdMillis;
+
+    public LagAwareCheckpointPolicy(final long intervalMillis, final long catchUpIntervalMillis,
+                                    final long lagThresholdMillis) {
+        this.intervalMillis = intervalMillis;
+        this.catchUpIntervalMillis = catchUpIntervalMillis;
+        this.lagThresholdMillis = lagThresholdMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCheckpointRequired(final CheckpointProgress progress, final long now) {
+        long interval = progress.getMillisBehindLatest() >= lagThresholdMillis ? catchUpIntervalMillis : intervalMillis;
+        return progress.getMillisSinceLastCheckpoint(now) > interval;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("every %dms, every %dms when more than %dms behind", intervalMillis,
+            catchUpIntervalMillis, lagThresholdMillis);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops DynamoDB MODIFY events that don't change any of the tracked fields, comparing the old and new images of
+ * the record. If no fields are configured all attributes are compared, so only events with identical images are
+ * dropped.
+ *
+ * <p>Events are checked one by one before they are coalesced: if a batch has a relevant change followed by an
+ * irrelevant one, the first event is kept and its new image already has the latest values of the tracked fields.</p>
+ */
+public class ModifyEventFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModifyEventFilter.class);
+
+    /**
+     * Fields that trigger an update when they change, if empty all attributes are compared
+     */
+    protected final Set<String> fields;
+
+    public ModifyEventFilter(final Collection<String> fields) {
+        this.fields = new LinkedHashSet<>();
+        if (fields != null) {
+            for (String field : fields) {
+                if (StringUtils.isNotBlank(field)) {
+                    this.fields.add(field.trim());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the MODIFY events that have no relevant changes.
+     * @param records records in stream order
+     * @return the records that need to be indexed, in the same order
+     */
+    public List<Record> filter(final List<Record> records) {
+        List<Record> result = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (!isUnchanged(record)) {
+                result.add(record);
+            }
+        }
+        if (result.size() < records.size()) {
+            logger.debug("Skipped {} MODIFY record(s) without relevant changes", records.size() - result.size());
+        }
+        return result;
+    }
+
+    /**
+     * @param record the record to check
+     * @return true if the record is a MODIFY event and none of the tracked fields changed
+     */
+    public boolean isUnchanged(final Record record) {
+        if (!(record instanceof RecordAdapter)) {
+            return false;
+        }
+        com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
+        if (dynamoRecord == null || !RecordCoalescer.MODIFY_EVENT.equals(dynamoRecord.getEventName())) {
+            return false;
+        }
+        StreamRecord streamRecord = dynamoRecord.getDynamodb();
+        if (streamRecord == null || streamRecord.getOldImage() == null || streamRecord.getNewImage() == null) {
+            return false;
+        }
+        return isUnchanged(streamRecord.getOldImage(), streamRecord.getNewImage());
+    }
+
+    protected boolean isUnchanged(final Map<String, AttributeValue> oldImage,
+                                  final Map<String, AttributeValue> newImage) {
+        if (fields.isEmpty()) {
+            return oldImage.equals(newImage);
+        }
+        for (String field : fields) {
+            if (!Objects.equals(oldImage.get(field), newImage.get(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.craftercms.deployer.aws.utils.SearchHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses the DynamoDB stream records of a single batch to the last event for each document id, so that the number
+ * of search requests depends on the number of distinct documents instead of the number of events.
+ *
+ * <ul>
+ *     <li>The last INSERT or MODIFY for an id wins, since updates always replace the whole document</li>
+ *     <li>A REMOVE for an id whose first event in the batch was an INSERT cancels out, the document never reached
+ *     the index</li>
+ *     <li>Records without a resolvable id are always kept</li>
+ * </ul>
+ */
+public class RecordCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordCoalescer.class);
+
+    public static final String INSERT_EVENT = "INSERT";
+    public static final String MODIFY_EVENT = "MODIFY";
+    public static final String REMOVE_EVENT = "REMOVE";
+
+    /**
+     * Helper used to resolve the document id of each record
+     */
+    protected SearchHelper searchHelper;
+
+    /**
+     * Name of the table the records come from, used to resolve ids from the record keys
+     */
+    protected String tableName;
+
+    public RecordCoalescer(final SearchHelper searchHelper) {
+        this.searchHelper = searchHelper;
+    }
+
+    public void setTableName(final String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * Collapses the given records to the last relevant event for each document id.
+     * @param records records in stream order
+     * @return the records that still need to be indexed, ordered by their last occurrence in the batch
+     */
+    public List<Record> coalesce(final List<Record> records) {
+        Map<Object, Record> latest = new LinkedHashMap<>(records.size());
+        Set<String> insertedInBatch = new HashSet<>();
+
+        for (Record record : records) {
+            String id = getId(record);
+            if (id == null) {
+                // nothing to compare against, keep it as is
+                latest.put(new Object(), record);
+                continue;
+            }
+
+            String event = getEventName(record);
+            if (!latest.containsKey(id) && INSERT_EVENT.equals(event)) {
+                insertedInBatch.add(id);
+            }
+
+            // remove first so the map keeps the position of the last occurrence
+            latest.remove(id);
+            if (REMOVE_EVENT.equals(event) && insertedInBatch.contains(id)) {
+                logger.debug("Document '{}' was created and removed in the same batch, it will be skipped", id);
+                continue;
+            }
+            latest.put(id, record);
+        }
+
+        List<Record> result = new ArrayList<>(latest.values());
+        if (result.size() < records.size()) {
+            logger.debug("Coalesced {} record(s) into {}", records.size(), result.size());
+        }
+        return result;
+    }
+
+    protected String getId(final Record record) {
+        if (!(record instanceof RecordAdapter)) {
+            return null;
+        }
+        com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = ((RecordAdapter) record).getInternalObject();
+        if (dynamoRecord == null) {
+            return null;
+        }
+        return searchHelper.getId(tableName, dynamoRecord);
+    }
+
+    protected String getEventName(final Record record) {
+        return ((RecordAdapter) record).getInternalObject().getEventName();
+    }
+
+}
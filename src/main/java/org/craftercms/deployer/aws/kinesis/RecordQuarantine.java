@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file that keeps the records that could not be indexed, so they can be inspected and replayed later.
+ * Each line is a JSON object with the shard id, sequence number, partition key, the error and the raw data of the
+ * record encoded in base 64 (for DynamoDb streams the data contains the full stream record with its images).
+ */
+public class RecordQuarantine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordQuarantine.class);
+
+    /**
+     * File where records are added
+     */
+    protected final Path file;
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    public RecordQuarantine(final Path folder, final String siteName) {
+        this.file = folder.resolve(siteName + "-quarantine.jsonl");
+    }
+
+    /**
+     * Adds a record to the file.
+     * @param shardId the shard the record belongs to
+     * @param record the record
+     * @param failure the error that prevented indexing the record, if known
+     * @throws IOException if the record can't be written
+     */
+    public synchronized void add(final String shardId, final Record record, final Throwable failure)
+        throws IOException {
+        ObjectNode entry = objectMapper.createObjectNode();
+        entry.put("timestamp", Instant.now().toString());
+        entry.put("shardId", shardId);
+        entry.put("sequenceNumber", record.getSequenceNumber());
+        if (record instanceof UserRecord) {
+            entry.put("subSequenceNumber", ((UserRecord) record).getSubSequenceNumber());
+        }
+        entry.put("partitionKey", record.getPartitionKey());
+        if (failure != null) {
+            entry.put("error", failure.toString());
+        }
+        ByteBuffer data = record.getData();
+        if (data != null) {
+            byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            entry.put("data", bytes);
+        }
+
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                                     StandardOpenOption.APPEND)) {
+            writer.write(objectMapper.writeValueAsString(entry));
+            writer.write('\n');
+        }
+        logger.warn("Record {} from {} has been added to quarantine file {}", record.getSequenceNumber(), shardId,
+            file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.kinesis;
+
+/**
+ * Implementation of {@link CheckpointPolicy} that checkpoints once a fixed interval has passed.
+ */
+public class TimeCheckpointPolicy implements CheckpointPolicy {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 60000L;
+
+    /**
+     * Minimum time in milliseconds between checkpoints
+     */
+    protected final long intervalMillis;
+
+    public TimeCheckpointPolicy(final long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public TimeCheckpointPolicy() {
+        this(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCheckpointRequired(final CheckpointProgress progress, final long now) {
+        return progress.getMillisSinceLastCheckpoint(now) > intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "every " + intervalMillis + "ms";
+    }
+
+}
@@ -20,30 +20,49 @@ package org.craftercms.deployer.aws.processor;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
-import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.craftercms.deployer.api.ChangeSet;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.ProcessorExecution;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.aws.utils.AwsConfig;
+import org.craftercms.deployer.aws.utils.BulkIndexingSink;
+import org.craftercms.deployer.aws.utils.DaemonThreadFactory;
+import org.craftercms.deployer.aws.utils.DocumentMapping;
+import org.craftercms.deployer.aws.utils.IndexedDocumentCache;
+import org.craftercms.deployer.aws.utils.IndexingOperation;
+import org.craftercms.deployer.aws.utils.ReadCapacityLimiter;
 import org.craftercms.deployer.aws.utils.Retry;
+import org.craftercms.deployer.aws.utils.SearchCircuitBreaker;
 import org.craftercms.deployer.aws.utils.SearchHelper;
 import org.craftercms.deployer.impl.DeploymentConstants;
 import org.craftercms.deployer.impl.processors.AbstractMainDeploymentProcessor;
 import org.craftercms.search.exception.SearchException;
-import org.craftercms.search.exception.SearchServerException;
 import org.craftercms.search.service.SearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,7 +70,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Implementation of {@link AbstractMainDeploymentProcessor} that indexes records directly from
- * AWS DynamoDB tables.
+ * AWS DynamoDB tables. Each table can be divided in segments that are scanned and indexed in parallel, sharing a
+ * fixed number of threads with the segments of the other tables, and the read capacity consumed by the scans can be
+ * limited to leave room for the application using the tables.
  *
  * @author joseross
  */
@@ -61,6 +82,12 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
     private static final Logger logger = LoggerFactory.getLogger(DynamoIndexingProcessor.class);
 
     public static final String TABLES_DEPLOY_PARAMETER = "dynamo_tables";
+    public static final String RESUME_DEPLOY_PARAMETER = "dynamo_resume";
+
+    /**
+     * Maximum time to wait for the running segments to stop when the execution is interrupted.
+     */
+    protected static final long SEGMENT_STOP_TIMEOUT_SECONDS = 60;
 
     /**
      * Name of the tables to scan.
@@ -72,11 +99,71 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
      */
     protected boolean continueOnError;
 
+    /**
+     * Maximum number of documents sent to the index in a single batch.
+     */
+    protected int bulkMaxDocuments;
+
+    /**
+     * Maximum estimated size of the documents sent to the index in a single batch.
+     */
+    protected long bulkMaxBytes;
+
+    /**
+     * Number of segments each table is divided in.
+     */
+    protected int scanSegments;
+
+    /**
+     * Maximum number of segments scanned at the same time, for all tables.
+     */
+    protected int scanThreads;
+
+    /**
+     * Order in which tables are scheduled.
+     */
+    protected String scanTableOrder;
+
+    /**
+     * Maximum number of pages fetched ahead of the one being indexed, for each segment.
+     */
+    protected int scanPrefetchPages;
+
+    /**
+     * Fraction of the provisioned read capacity of each table that scans can consume, 0 or less disables the limit.
+     */
+    protected double readCapacityShare;
+
+    /**
+     * Maximum read capacity units per second that scans of each table can consume, 0 or less disables the limit.
+     */
+    protected double maxReadCapacity;
+
+    /**
+     * Folder where the progress of the scans is saved.
+     */
+    protected String scanProgressFolder;
+
+    /**
+     * Minimum time in milliseconds between saves of the scan progress.
+     */
+    protected long scanSaveIntervalMillis;
+
+    /**
+     * Content of the indexed documents, shared with all other processors of the site, if null all items are sent.
+     */
+    protected IndexedDocumentCache documentCache;
+
     /**
      * Helper to perform indexing.
      */
     protected SearchHelper searchHelper = new SearchHelper();
 
+    /**
+     * Circuit breaker for the search server, shared with all other processors.
+     */
+    protected SearchCircuitBreaker circuitBreaker = SearchCircuitBreaker.getShared();
+
     /**
      * Current instance of {@link SearchService}.
      */
@@ -101,6 +188,24 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
         tables = config.getList(String.class, AwsConfig.TABLES_CONFIG_KEY);
 
         continueOnError = AwsConfig.getContinueOnError(config);
+        bulkMaxDocuments = AwsConfig.getBulkMaxDocuments(config);
+        bulkMaxBytes = AwsConfig.getBulkMaxBytes(config);
+        scanSegments = AwsConfig.getScanSegments(config);
+        scanThreads = AwsConfig.getScanThreads(config);
+        scanTableOrder = AwsConfig.getScanTableOrder(config);
+        scanPrefetchPages = AwsConfig.getScanPrefetchPages(config);
+        scanProgressFolder = AwsConfig.getScanProgressFolder(config);
+        readCapacityShare = AwsConfig.getScanReadCapacityShare(config);
+        maxReadCapacity = AwsConfig.getScanMaxReadCapacity(config);
+        scanSaveIntervalMillis = AwsConfig.getScanSaveInterval(config);
+        if (config instanceof HierarchicalConfiguration) {
+            searchHelper.setDocumentMappings(DocumentMapping.fromConfiguration(
+                ((HierarchicalConfiguration) config).configurationsAt(AwsConfig.MAPPINGS_CONFIG_KEY)));
+        }
+        int dedupeMaxEntries = AwsConfig.getDedupeMaxEntries(config);
+        if (dedupeMaxEntries > 0) {
+            documentCache = IndexedDocumentCache.getShared(siteName, dedupeMaxEntries);
+        }
 
         //save state for connecting at execution time
         region = AwsConfig.getRegionName(config);
@@ -108,6 +213,8 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
 
         logger.info("Dynamo Reindexing Processor will execute on tables: {}, with skip failed records: {}",
         		tables, continueOnError);
+        logger.info("Tables will be scanned in {} segment(s) using up to {} thread(s), ordered by: {}",
+                    scanSegments, scanThreads, scanTableOrder);
         logger.info("Connecting with {} on region {}",
         		credentialsProvider != null ? "access keys" : "IAM role default credentials provider",
         		region);
@@ -121,49 +228,409 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
         filteredChangeSet) throws DeployerException {
     	//connect at execution time so that ProfileCredentialsProvider tokens do not expire
     	AmazonDynamoDB client = getClient();
+        ScanProgress progress = new ScanProgress(Paths.get(scanProgressFolder), siteName, scanSaveIntervalMillis);
+        if (isResume(deployment)) {
+            try {
+                progress.load();
+            } catch (IOException e) {
+                throw new DeployerException("Unable to read scan progress from " + progress.getFile(), e);
+            }
+        }
+
+        if (documentCache != null) {
+            // the index could have been emptied before the reindex, so earlier changes can't be used to skip items
+            documentCache.clear();
+        }
+
+        List<String> targetTables = orderTables(client, getTargetTables(deployment));
+        ExecutorService executor = scanThreads > 1 ?
+            Executors.newFixedThreadPool(scanThreads, new DaemonThreadFactory("scan-" + siteName)) : null;
+        List<TableScan> scans = new ArrayList<>(targetTables.size());
+        try {
+            for(String table : targetTables) {
+                progress.start(table, scanSegments);
+                logger.info("Starting scan for table '{}'", table);
+                scans.add(scheduleTable(client, table, executor, progress));
+            }
+            for (TableScan scan : scans) {
+                scan.await();
+                logger.info("Scan {} for table '{}', {} item(s) processed in total",
+                            scan.isSuccessful() ? "complete" : "failed", scan.getTable(),
+                            progress.getItemCount(scan.getTable()));
+            }
+        } catch (InterruptedException e) {
+            // segments must be stopped first, otherwise they could index pages past the saved progress
+            stopSegments(executor);
+            saveFailedProgress(progress);
+            Thread.currentThread().interrupt();
+            throw new DeployerException("Reindex of site '" + siteName + "' interrupted", e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        logger.info("Reindex summary for site '{}':", siteName);
+        scans.forEach(scan -> logger.info("  {}", scan));
+        List<String> failedTables = new ArrayList<>();
+        Throwable failure = null;
+        for (TableScan scan : scans) {
+            if (!scan.isSuccessful()) {
+                failedTables.add(scan.getTable());
+                failure = failure == null ? scan.getFailure() : failure;
+            }
+        }
+        if (!failedTables.isEmpty()) {
+            saveFailedProgress(progress);
+            throw new DeployerException("Scan of tables " + failedTables + " failed", failure);
+        }
+
+        commit();
+        try {
+            progress.clear(targetTables);
+        } catch (IOException e) {
+            logger.warn("Unable to clear scan progress in {}", progress.getFile(), e);
+        }
+
+        if (documentCache != null) {
+            logger.info("Dedupe cache for site '{}': {}", siteName, documentCache);
+        }
+        return null;
+    }
+
+    /**
+     * Interrupts all running segments and waits for them to finish.
+     * @param executor executor for the segments, can be null
+     */
+    protected void stopSegments(final ExecutorService executor) {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SEGMENT_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Scan segments for site '{}' did not stop after {} seconds", siteName,
+                            SEGMENT_STOP_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for the scan segments of site '{}' to stop", siteName);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Orders the tables to scan as configured. Ordering by size uses the table size reported by DynamoDB, which
+     * is updated approximately every six hours.
+     * @param client the DynamoDB client
+     * @param tables the tables to scan
+     * @return the tables in the order they should be scheduled
+     */
+    protected List<String> orderTables(final AmazonDynamoDB client, final Collection<String> tables) {
+        List<String> ordered = new ArrayList<>(tables);
+        if (AwsConfig.SCAN_TABLE_ORDER_CONFIGURED.equals(scanTableOrder) || ordered.size() < 2) {
+            return ordered;
+        }
+        Map<String, Long> sizes = new HashMap<>();
+        for (String table : ordered) {
+            Long size = client.describeTable(table).getTable().getTableSizeBytes();
+            sizes.put(table, size != null ? size : 0L);
+        }
+        Comparator<String> bySize = Comparator.comparing(sizes::get);
+        ordered.sort(AwsConfig.SCAN_TABLE_ORDER_LARGEST.equals(scanTableOrder) ? bySize.reversed() : bySize);
+        logger.info("Tables will be scanned in order {} with sizes {}", ordered, sizes);
+        return ordered;
+    }
+
+    /**
+     * Schedules all segments of a table. When there is an executor the segments of all tables share its threads,
+     * so they are started in the order tables and segments are scheduled; otherwise they are scanned right away,
+     * one after the other.
+     * @param client the DynamoDB client
+     * @param table the name of the table
+     * @param executor executor for the segments, can be null
+     * @param progress progress of the scan
+     * @return the scan of the table
+     * @throws InterruptedException if interrupted while scanning the segments right away
+     */
+    protected TableScan scheduleTable(final AmazonDynamoDB client, final String table,
+                                      final ExecutorService executor, final ScanProgress progress)
+        throws InterruptedException {
+        TableScan scan = new TableScan(table);
+        ReadCapacityLimiter limiter;
+        try {
+            limiter = createLimiter(client, table);
+        } catch (RuntimeException e) {
+            scan.segmentFailed(e);
+            return scan;
+        }
+        for (int i = 0; i < scanSegments; i++) {
+            int segment = i;
+            Callable<Long> task = () -> {
+                scan.segmentStarted();
+                try {
+                    long count = scanSegment(client, table, segment, progress, limiter);
+                    scan.segmentCompleted(count);
+                    return count;
+                } catch (InterruptedException e) {
+                    // keep the interrupt visible to whoever runs the task
+                    Thread.currentThread().interrupt();
+                    logger.info("Scan of segment {} of table '{}' interrupted", segment, table);
+                    scan.segmentFailed(e);
+                    throw e;
+                } catch (Exception e) {
+                    logger.error("Scan of segment {} of table '{}' failed", segment, table, e);
+                    scan.segmentFailed(e);
+                    throw e;
+                }
+            };
+            if (executor != null) {
+                scan.addSegment(executor.submit(task));
+            } else {
+                FutureTask<Long> future = new FutureTask<>(task);
+                future.run();
+                scan.addSegment(future);
+                // don't start the remaining segments or tables of a cancelled reindex
+                checkInterrupted();
+            }
+        }
+        return scan;
+    }
 
-        for(String table : getTargetTables(deployment)) {
-            logger.info("Starting scan for table '{}'", table);
-            Map<String, AttributeValue> lastKeyEvaluated = null;
-            do {
-                ScanRequest request = new ScanRequest()
-                                        .withTableName(table)
-                                        .withExclusiveStartKey(lastKeyEvaluated);
-                ScanResult result = client.scan(request);
-                logger.info("Processing {} items", result.getCount());
+    /**
+     * Scans a single segment of a table, indexing the items with its own sink. The scan continues from the saved
+     * progress of the segment if any, and the progress is updated after each page is sent to the index.
+     * @param client the DynamoDB client
+     * @param table the name of the table
+     * @param segment the segment to scan
+     * @param progress progress of the scan
+     * @param limiter limiter for the read capacity of the table, can be null
+     * @return the number of items processed
+     * @throws InterruptedException if interrupted, for example when the scan is cancelled
+     */
+    protected long scanSegment(final AmazonDynamoDB client, final String table, final int segment,
+                               final ScanProgress progress, final ReadCapacityLimiter limiter)
+        throws InterruptedException {
+        if (progress.isCompleted(table, segment)) {
+            logger.info("Segment {} of table '{}' was already completed", segment, table);
+            return 0;
+        }
+        BulkIndexingSink<Map> sink =
+            new BulkIndexingSink<>(searchService, searchHelper, siteName, bulkMaxDocuments, bulkMaxBytes);
+        sink.setCircuitBreaker(circuitBreaker);
+        sink.setDocumentCache(documentCache);
+
+        long count = 0;
+        Map<String, AttributeValue> startKey = progress.getStartKey(table, segment);
+        if (startKey != null) {
+            logger.info("Resuming scan of segment {} of table '{}' from key {}", segment, table, startKey);
+        }
+        try (ScanPageReader reader = new ScanPageReader("scan-" + table + "-" + segment, startKey, scanPrefetchPages,
+                 key -> scan(client, createRequest(table, segment, key), limiter))) {
+            reader.start();
+            ScanResult result;
+            while ((result = reader.next()) != null) {
+                logger.info("Processing {} items from segment {} of table '{}'", result.getCount(), segment, table);
                 for (Map map : result.getItems()) {
+                    checkInterrupted();
                     Retry.untilTrue(() -> {
                         try {
-                            searchHelper.update(searchService, siteName, ItemUtils.toItem(map).asMap());
+                            IndexingOperation operation =
+                                searchHelper.createUpdate(siteName, searchHelper.getDocFromDynamo(table, map));
+                            if (operation != null) {
+                                sink.add(operation, map);
+                            }
                             return true;
-                        } catch (SearchServerException e) {
-                            logger.error("Search server is unavailable, will retry", e);
-                            return false;
                         } catch (Exception e) {
                             logger.error("Processing of record failed", e);
                             return continueOnError;
                         }
                     });
                 }
-                lastKeyEvaluated = result.getLastEvaluatedKey();
-                if(lastKeyEvaluated != null) {
-                    logger.info("Will try to fetch next batch of items");
-                }
-            } while (lastKeyEvaluated != null);
-            logger.info("Scan complete for table '{}'", table);
+                flush(sink);
+                checkInterrupted();
+                count += result.getItems().size();
+                progress.update(table, segment, result.getLastEvaluatedKey(), result.getItems().size());
+                saveProgress(progress);
+            }
         }
-        
-        Retry.untilTrue(() -> {
+        return count;
+    }
+
+    /**
+     * Creates the request for a page of a segment.
+     * @param table the name of the table
+     * @param segment the segment to scan
+     * @param startKey the key to start the page from, null for the first page
+     * @return the request
+     */
+    protected ScanRequest createRequest(final String table, final int segment,
+                                        final Map<String, AttributeValue> startKey) {
+        ScanRequest request = new ScanRequest()
+                                .withTableName(table)
+                                .withExclusiveStartKey(startKey)
+                                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        if (scanSegments > 1) {
+            request.withSegment(segment).withTotalSegments(scanSegments);
+        }
+        return request;
+    }
+
+    /**
+     * Creates the limiter for the read capacity consumed by the scans of a table.
+     * @param client the DynamoDB client
+     * @param table the name of the table
+     * @return the limiter, or null if the scans are not limited
+     */
+    protected ReadCapacityLimiter createLimiter(final AmazonDynamoDB client, final String table) {
+        double rate = 0;
+        if (readCapacityShare > 0) {
+            ProvisionedThroughputDescription throughput =
+                client.describeTable(table).getTable().getProvisionedThroughput();
+            Long provisioned = throughput != null ? throughput.getReadCapacityUnits() : null;
+            if (provisioned != null && provisioned > 0) {
+                rate = provisioned * readCapacityShare;
+            } else {
+                logger.info("Table '{}' has no provisioned read capacity", table);
+            }
+        }
+        if (maxReadCapacity > 0 && (rate <= 0 || maxReadCapacity < rate)) {
+            rate = maxReadCapacity;
+        }
+        if (rate <= 0) {
+            return null;
+        }
+        logger.info("Scans of table '{}' will consume up to {} read capacity units per second", table, rate);
+        return new ReadCapacityLimiter(table, rate);
+    }
+
+    /**
+     * Performs a scan request, reserving its estimated read capacity before it is sent and retrying it while the
+     * throughput of the table is exceeded.
+     * @param client the DynamoDB client
+     * @param request the request
+     * @param limiter limiter for the read capacity of the table, if null the request is performed right away
+     * @return the result of the request
+     * @throws InterruptedException if interrupted while waiting for read capacity or between attempts
+     */
+    protected ScanResult scan(final AmazonDynamoDB client, final ScanRequest request,
+                              final ReadCapacityLimiter limiter) throws InterruptedException {
+        if (limiter == null) {
+            return client.scan(request);
+        }
+        while (true) {
+            checkInterrupted();
+            double reserved = limiter.acquire();
+            ScanResult result;
             try {
-                searchService.commit(siteName);
+                result = client.scan(request);
+            } catch (ProvisionedThroughputExceededException e) {
+                logger.debug("Read throughput exceeded, will retry", e);
+                limiter.release(reserved);
+                limiter.throttled();
+                continue;
+            } catch (RuntimeException e) {
+                limiter.release(reserved);
+                throw e;
+            }
+            ConsumedCapacity capacity = result.getConsumedCapacity();
+            if (capacity != null && capacity.getCapacityUnits() != null) {
+                limiter.consumed(reserved, capacity.getCapacityUnits());
+            } else {
+                limiter.consumed(reserved, reserved);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Saves the progress of the scan after a failure, committing the changes sent so far.
+     * @param progress progress of the scan
+     */
+    protected void saveFailedProgress(final ScanProgress progress) {
+        try {
+            progress.save(this::commit);
+            logger.info("Scan progress saved to {}, it can be resumed with the '{}' parameter",
+                        progress.getFile(), RESUME_DEPLOY_PARAMETER);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to save scan progress to {}", progress.getFile(), e);
+        }
+    }
+
+    /**
+     * Saves the progress of the scan if required, committing the changes sent so far.
+     * @param progress progress of the scan
+     */
+    protected void saveProgress(final ScanProgress progress) {
+        try {
+            progress.saveIfRequired(this::commit);
+        } catch (IOException e) {
+            logger.warn("Unable to save scan progress to {}", progress.getFile(), e);
+        }
+    }
+
+    /**
+     * Commits the changes sent to the index, retrying until the search server is available.
+     * @throws IllegalStateException if interrupted before the changes are committed
+     */
+    protected void commit() {
+        boolean committed = Retry.untilTrue(() -> {
+            try {
+                circuitBreaker.execute(() -> searchService.commit(siteName));
                 return true;
             } catch (SearchException e) {
                 logger.error("Search server is unavailable, will retry", e);
                 return false;
             }
-        });
+        }, circuitBreaker);
+        if (!committed) {
+            throw new IllegalStateException("Interrupted before committing the changes for site '" + siteName + "'");
+        }
+    }
 
-        return null;
+    /**
+     * Sends all buffered items to the index, retrying the ones that failed until they are indexed or skipped.
+     * @param sink the sink holding the items
+     * @throws InterruptedException if interrupted before all items are indexed or skipped
+     */
+    protected void flush(final BulkIndexingSink<Map> sink) throws InterruptedException {
+        List<BulkIndexingSink.Result<Map>> failed = new ArrayList<>();
+        boolean flushed = Retry.untilTrue(() -> {
+            // failures of the previous attempt are sent again only once the backoff has passed
+            failed.forEach(result -> sink.add(result.getOperation(), result.getSource()));
+            failed.clear();
+            boolean unavailable = false;
+            for (BulkIndexingSink.Result<Map> result : sink.flush()) {
+                if (result.isSuccessful()) {
+                    continue;
+                }
+                if (result.isSearchUnavailable()) {
+                    if (!unavailable) {
+                        logger.error("Search server is unavailable, will retry", result.getFailure());
+                        unavailable = true;
+                    }
+                } else {
+                    logger.error("Processing of record failed", result.getFailure());
+                    if (continueOnError) {
+                        continue;
+                    }
+                }
+                failed.add(result);
+            }
+            return failed.isEmpty();
+        }, circuitBreaker);
+        if (!flushed) {
+            checkInterrupted();
+        }
+    }
+
+    /**
+     * Stops the current task if its thread has been interrupted, for example because the scan was cancelled.
+     * @throws InterruptedException if the thread has been interrupted, clearing its interrupt status
+     */
+    protected void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Scan interrupted for site '" + siteName + "'");
+        }
     }
 
 	/**
@@ -201,6 +668,11 @@ public class DynamoIndexingProcessor extends AbstractMainDeploymentProcessor {
         return builder.build();
     }
 
+    private boolean isResume(Deployment deployment) {
+        Object resumeParam = deployment.getParam(RESUME_DEPLOY_PARAMETER);
+        return resumeParam != null && Boolean.parseBoolean(resumeParam.toString());
+    }
+
     private Collection<String> getTargetTables(Deployment deployment) {
     	//support passing a single or multiple values
     	Object tableParam = deployment.getParam(TABLES_DEPLOY_PARAMETER);
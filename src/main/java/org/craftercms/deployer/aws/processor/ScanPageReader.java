@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.processor;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.craftercms.deployer.aws.utils.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the pages of a scan in order, fetching the next pages on a separate thread while the current one is being
+ * indexed. The number of pages fetched but not yet returned by {@link #next()} is bounded, so the reader never gets
+ * too far ahead of the indexing. If no pages are prefetched, each page is fetched when requested.
+ *
+ * <p>Closing the reader interrupts the fetching thread and waits for it to finish, so it never outlives the scan.</p>
+ */
+public class ScanPageReader implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanPageReader.class);
+
+    /**
+     * Maximum time to wait for the reader thread to finish when the reader is closed
+     */
+    protected static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Performs the request for a single page.
+     */
+    @FunctionalInterface
+    public interface PageFetcher {
+
+        /**
+         * @param startKey the key to start the page from, null for the first page
+         * @return the page
+         * @throws InterruptedException if interrupted while waiting to perform the request
+         */
+        ScanResult fetch(Map<String, AttributeValue> startKey) throws InterruptedException;
+
+    }
+
+    /**
+     * Name of the reader, used for logging
+     */
+    protected final String name;
+
+    /**
+     * Maximum number of pages fetched ahead
+     */
+    protected final int prefetchPages;
+
+    protected final PageFetcher fetcher;
+
+    /**
+     * Factory for the thread that fetches pages ahead
+     */
+    protected final ThreadFactory threadFactory;
+
+    /**
+     * Pages fetched ahead, in scan order
+     */
+    protected final BlockingQueue<Page> pages = new LinkedBlockingQueue<>();
+
+    /**
+     * Permits for the reader thread to fetch a new page
+     */
+    protected final Semaphore available;
+
+    protected Map<String, AttributeValue> nextKey;
+    protected boolean finished;
+    protected volatile boolean running;
+    protected Thread thread;
+
+    public ScanPageReader(final String name, final Map<String, AttributeValue> startKey, final int prefetchPages,
+                          final PageFetcher fetcher, final ThreadFactory threadFactory) {
+        this.name = name;
+        this.nextKey = startKey;
+        this.prefetchPages = Math.max(prefetchPages, 0);
+        this.fetcher = fetcher;
+        this.threadFactory = threadFactory;
+        this.available = new Semaphore(this.prefetchPages);
+    }
+
+    public ScanPageReader(final String name, final Map<String, AttributeValue> startKey, final int prefetchPages,
+                          final PageFetcher fetcher) {
+        this(name, startKey, prefetchPages, fetcher, new DaemonThreadFactory(name));
+    }
+
+    /**
+     * Starts fetching pages in the background, if enabled.
+     */
+    public synchronized void start() {
+        if (prefetchPages == 0 || running) {
+            return;
+        }
+        running = true;
+        thread = threadFactory.newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * Provides the next page of the scan, waiting until it is fetched.
+     * @return the page, or null if the scan is complete
+     * @throws InterruptedException if interrupted while waiting for the page, or if the reader thread was
+     * @throws RuntimeException if the request for the page failed
+     * @throws Error if the reader thread stopped because of an error
+     */
+    public ScanResult next() throws InterruptedException {
+        if (finished) {
+            return null;
+        }
+        ScanResult result;
+        if (prefetchPages == 0) {
+            result = fetcher.fetch(nextKey);
+            nextKey = result.getLastEvaluatedKey();
+        } else {
+            Page page = pages.take();
+            available.release();
+            if (page.failure != null) {
+                finished = true;
+                rethrow(page.failure);
+            }
+            result = page.result;
+        }
+        finished = result.getLastEvaluatedKey() == null;
+        return result;
+    }
+
+    /**
+     * Stops fetching pages and waits for the reader thread to finish, any page fetched ahead is discarded.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(CLOSE_TIMEOUT_MILLIS);
+                if (thread.isAlive()) {
+                    logger.warn("Reader {} did not stop after {} ms", name, CLOSE_TIMEOUT_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        pages.clear();
+    }
+
+    protected void run() {
+        Map<String, AttributeValue> key = nextKey;
+        try {
+            do {
+                available.acquire();
+                ScanResult result = fetcher.fetch(key);
+                pages.put(new Page(result, null));
+                key = result.getLastEvaluatedKey();
+            } while (running && key != null);
+        } catch (InterruptedException e) {
+            logger.debug("Reader {} interrupted", name);
+            pages.add(new Page(null, e));
+        } catch (Throwable e) {
+            // any failure must reach the scan, otherwise it would wait forever for the next page
+            pages.add(new Page(null, e));
+        }
+    }
+
+    protected void rethrow(final Throwable failure) throws InterruptedException {
+        if (failure instanceof InterruptedException) {
+            throw new InterruptedException("Reader " + name + " was interrupted");
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IllegalStateException("Reader " + name + " failed", failure);
+    }
+
+    /**
+     * A fetched page or the error that prevented fetching it.
+     */
+    protected static class Page {
+
+        protected final ScanResult result;
+        protected final Throwable failure;
+
+        protected Page(final ScanResult result, final Throwable failure) {
+            this.result = result;
+            this.failure = failure;
+        }
+
+    }
+
+}
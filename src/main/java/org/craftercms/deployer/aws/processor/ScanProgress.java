@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.processor;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the progress of the scans performed by a {@link DynamoIndexingProcessor} in a local file, so that an
+ * interrupted reindex can be resumed. For each segment of each table the file holds the last evaluated key, whether
+ * the segment is complete and the number of items processed.
+ *
+ * <p>The state is captured before the pending changes are committed and written afterwards, so a saved key never
+ * points past an item that is not committed yet.</p>
+ */
+public class ScanProgress {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanProgress.class);
+
+    /**
+     * File where the progress is saved
+     */
+    protected final Path file;
+
+    /**
+     * Minimum time in milliseconds between saves
+     */
+    protected final long saveIntervalMillis;
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Progress of each table, in scan order
+     */
+    protected final Map<String, Segment[]> tables = new LinkedHashMap<>();
+
+    /**
+     * Serializes writes, so an older state never replaces a newer one
+     */
+    protected final Object writeLock = new Object();
+
+    protected long lastSaveMillis;
+
+    public ScanProgress(final Path folder, final String siteName, final long saveIntervalMillis) {
+        this.file = folder.resolve(siteName + "-scan.json");
+        this.saveIntervalMillis = saveIntervalMillis;
+    }
+
+    /**
+     * Reads the progress saved by a previous execution, if any.
+     * @throws IOException if the file can't be read
+     */
+    public synchronized void load() throws IOException {
+        tables.clear();
+        if (!Files.exists(file)) {
+            logger.info("No saved scan progress found in {}", file);
+            return;
+        }
+        JsonNode root = objectMapper.readTree(file.toFile());
+        for (Iterator<Map.Entry<String, JsonNode>> it = root.fields(); it.hasNext();) {
+            Map.Entry<String, JsonNode> table = it.next();
+            JsonNode segments = table.getValue();
+            Segment[] progress = new Segment[segments.size()];
+            for (int i = 0; i < progress.length; i++) {
+                progress[i] = Segment.fromJson(segments.get(i));
+            }
+            tables.put(table.getKey(), progress);
+        }
+        logger.info("Loaded scan progress for tables {} from {}", tables.keySet(), file);
+    }
+
+    /**
+     * Prepares the progress of a table, discarding the saved one if it used a different number of segments.
+     * @param table the name of the table
+     * @param totalSegments number of segments the table is divided in
+     */
+    public synchronized void start(final String table, final int totalSegments) {
+        Segment[] progress = tables.get(table);
+        if (progress != null && progress.length == totalSegments) {
+            return;
+        }
+        if (progress != null) {
+            logger.warn("Saved progress for table '{}' uses {} segment(s) instead of {}, the scan will start over",
+                        table, progress.length, totalSegments);
+        }
+        progress = new Segment[totalSegments];
+        for (int i = 0; i < totalSegments; i++) {
+            progress[i] = new Segment();
+        }
+        tables.put(table, progress);
+    }
+
+    public synchronized boolean isCompleted(final String table, final int segment) {
+        return tables.get(table)[segment].completed;
+    }
+
+    /**
+     * @return the key to continue the scan of a segment from, null to start from the beginning
+     */
+    public synchronized Map<String, AttributeValue> getStartKey(final String table, final int segment) {
+        return tables.get(table)[segment].lastKey;
+    }
+
+    /**
+     * @return the number of items processed for all segments of a table
+     */
+    public synchronized long getItemCount(final String table) {
+        long count = 0;
+        for (Segment segment : tables.get(table)) {
+            count += segment.items;
+        }
+        return count;
+    }
+
+    /**
+     * Records that a page of a segment has been sent to the index.
+     * @param table the name of the table
+     * @param segment the segment
+     * @param lastKey the last evaluated key of the page, null if the segment is complete
+     * @param items number of items in the page
+     */
+    public synchronized void update(final String table, final int segment,
+                                    final Map<String, AttributeValue> lastKey, final long items) {
+        Segment progress = tables.get(table)[segment];
+        progress.lastKey = lastKey;
+        progress.completed = lastKey == null;
+        progress.items += items;
+    }
+
+    /**
+     * Saves the progress if the save interval has passed since the last time. Only one of the callers that find the
+     * interval has passed performs the save, the others return immediately.
+     * @param commit action that commits the changes included in the saved state
+     * @return true if the progress was saved
+     * @throws IOException if the file can't be written
+     */
+    public boolean saveIfRequired(final Runnable commit) throws IOException {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastSaveMillis < saveIntervalMillis) {
+                return false;
+            }
+            lastSaveMillis = now;
+        }
+        save(commit);
+        return true;
+    }
+
+    /**
+     * Saves the progress of all tables.
+     * @param commit action that commits the changes included in the saved state
+     * @throws IOException if the file can't be written
+     */
+    public void save(final Runnable commit) throws IOException {
+        synchronized (writeLock) {
+            ObjectNode state;
+            synchronized (this) {
+                lastSaveMillis = System.currentTimeMillis();
+                state = toJson();
+            }
+            commit.run();
+            write(state);
+        }
+    }
+
+    /**
+     * Discards the progress of the given tables, the progress of any other table is kept. The saved file is removed
+     * once no table has progress left.
+     * @param finished the names of the tables
+     * @throws IOException if the file can't be written or deleted
+     */
+    public void clear(final Collection<String> finished) throws IOException {
+        synchronized (writeLock) {
+            ObjectNode state;
+            synchronized (this) {
+                tables.keySet().removeAll(finished);
+                state = tables.isEmpty() ? null : toJson();
+            }
+            if (state != null) {
+                write(state);
+            } else {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    protected void write(final ObjectNode state) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writeValue(temp.toFile(), state);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Saved scan progress to {}", file);
+    }
+
+    protected ObjectNode toJson() {
+        ObjectNode root = objectMapper.createObjectNode();
+        tables.forEach((table, segments) -> {
+            ArrayNode array = root.putArray(table);
+            for (Segment segment : segments) {
+                array.add(segment.toJson(objectMapper));
+            }
+        });
+        return root;
+    }
+
+    /**
+     * Progress of a single segment.
+     */
+    protected static class Segment {
+
+        protected Map<String, AttributeValue> lastKey;
+        protected boolean completed;
+        protected long items;
+
+        protected ObjectNode toJson(final ObjectMapper objectMapper) {
+            ObjectNode node = objectMapper.createObjectNode();
+            node.put("completed", completed);
+            node.put("items", items);
+            if (lastKey != null) {
+                ObjectNode key = node.putObject("lastKey");
+                lastKey.forEach((name, value) -> {
+                    ObjectNode attribute = key.putObject(name);
+                    if (value.getS() != null) {
+                        attribute.put("S", value.getS());
+                    } else if (value.getN() != null) {
+                        attribute.put("N", value.getN());
+                    } else if (value.getB() != null) {
+                        ByteBuffer data = value.getB().duplicate();
+                        byte[] bytes = new byte[data.remaining()];
+                        data.get(bytes);
+                        attribute.put("B", bytes);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported type for key attribute '" + name + "'");
+                    }
+                });
+            }
+            return node;
+        }
+
+        protected static Segment fromJson(final JsonNode node) throws IOException {
+            Segment segment = new Segment();
+            segment.completed = node.path("completed").asBoolean();
+            segment.items = node.path("items").asLong();
+            JsonNode key = node.get("lastKey");
+            if (key != null) {
+                segment.lastKey = new LinkedHashMap<>();
+                for (Iterator<Map.Entry<String, JsonNode>> it = key.fields(); it.hasNext();) {
+                    Map.Entry<String, JsonNode> attribute = it.next();
+                    JsonNode value = attribute.getValue();
+                    if (value.has("S")) {
+                        segment.lastKey.put(attribute.getKey(), new AttributeValue().withS(value.get("S").asText()));
+                    } else if (value.has("N")) {
+                        segment.lastKey.put(attribute.getKey(), new AttributeValue().withN(value.get("N").asText()));
+                    } else if (value.has("B")) {
+                        segment.lastKey.put(attribute.getKey(),
+                                            new AttributeValue().withB(ByteBuffer.wrap(value.get("B").binaryValue())));
+                    } else {
+                        throw new IOException("Unsupported type for key attribute '" + attribute.getKey() + "'");
+                    }
+                }
+            }
+            return segment;
+        }
+
+    }
+
+}
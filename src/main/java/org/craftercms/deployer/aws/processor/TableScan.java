@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Tracks the segments of a table scheduled by a {@link DynamoIndexingProcessor}. Segments report when they start
+ * and finish, so the time and number of items of the whole table can be summarized even when its segments run
+ * along with the ones of other tables.
+ */
+public class TableScan {
+
+    /**
+     * Name of the table
+     */
+    protected final String table;
+
+    /**
+     * Scheduled segments
+     */
+    protected final List<Future<Long>> segments = new ArrayList<>();
+
+    protected long items;
+    protected long startMillis;
+    protected long endMillis;
+    protected Throwable failure;
+
+    public TableScan(final String table) {
+        this.table = table;
+    }
+
+    public synchronized void addSegment(final Future<Long> segment) {
+        segments.add(segment);
+    }
+
+    public synchronized void segmentStarted() {
+        if (startMillis == 0) {
+            startMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Registers a completed segment.
+     * @param count number of items processed by the segment
+     */
+    public synchronized void segmentCompleted(final long count) {
+        items += count;
+        endMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Registers a failed segment, only the first failure is kept.
+     * @param error the error that stopped the segment
+     */
+    public synchronized void segmentFailed(final Throwable error) {
+        if (failure == null) {
+            failure = error;
+        }
+        endMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Waits until all segments are finished, failures are registered by the segments themselves.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        List<Future<Long>> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(segments);
+        }
+        for (Future<Long> segment : pending) {
+            try {
+                segment.get();
+            } catch (ExecutionException e) {
+                segmentFailed(e.getCause());
+            } catch (CancellationException e) {
+                segmentFailed(e);
+            }
+        }
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public synchronized long getItems() {
+        return items;
+    }
+
+    /**
+     * @return time between the start of the first segment and the end of the last one
+     */
+    public synchronized long getDurationMillis() {
+        return startMillis > 0 ? Math.max(endMillis - startMillis, 0) : 0;
+    }
+
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failure == null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String summary = String.format("%s: %d item(s) in %.1fs", table, items, getDurationMillis() / 1000.0);
+        return failure == null ? summary : summary + ", failed: " + failure;
+    }
+
+}
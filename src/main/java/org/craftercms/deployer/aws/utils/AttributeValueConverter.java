@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts DynamoDB items to search documents in a single pass, without building an intermediate
+ * {@link com.amazonaws.services.dynamodbv2.document.Item}. Values are mapped as follows:
+ * <ul>
+ *     <li>strings and booleans are kept as they are</li>
+ *     <li>numbers are kept as the text returned by DynamoDB, since they are written to the XML document as text</li>
+ *     <li>binary values are copied to byte arrays</li>
+ *     <li>sets become {@link LinkedHashSet}s, lists become {@link ArrayList}s and maps are converted recursively</li>
+ *     <li>null values are kept as null</li>
+ * </ul>
+ */
+public class AttributeValueConverter {
+
+    /**
+     * Converts the attributes of an item, keeping their order.
+     * @param image the item attributes
+     * @return a new mutable map with the document fields, null if the image is null
+     */
+    public Map<String, Object> toDocument(final Map<String, AttributeValue> image) {
+        if (image == null) {
+            return null;
+        }
+        Map<String, Object> document = new LinkedHashMap<>(getCapacity(image.size()));
+        for (Map.Entry<String, AttributeValue> entry : image.entrySet()) {
+            document.put(entry.getKey(), toValue(entry.getValue()));
+        }
+        return document;
+    }
+
+    /**
+     * Converts the attributes of an item following a mapping, attributes that are not indexed are not converted.
+     * @param image the item attributes
+     * @param mapping the mapping for the table, if null all attributes are converted as they are
+     * @return a new mutable map with the document fields, null if the image is null
+     * @throws IllegalArgumentException if a value can't be converted to the type defined in the mapping
+     */
+    public Map<String, Object> toDocument(final Map<String, AttributeValue> image, final DocumentMapping mapping) {
+        if (mapping == null || image == null) {
+            return toDocument(image);
+        }
+        Map<String, Object> document = new LinkedHashMap<>(getCapacity(image.size()));
+        for (Map.Entry<String, AttributeValue> entry : image.entrySet()) {
+            DocumentMapping.Field field = mapping.getField(entry.getKey());
+            if (field.isIndexed()) {
+                document.put(field.getName(), field.convert(toValue(entry.getValue())));
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Converts a single attribute value.
+     * @param value the value to convert
+     * @return the converted value
+     * @throws IllegalArgumentException if the value has no supported type
+     */
+    public Object toValue(final AttributeValue value) {
+        if (value.getS() != null) {
+            return value.getS();
+        }
+        if (value.getN() != null) {
+            return value.getN();
+        }
+        if (value.getBOOL() != null) {
+            return value.getBOOL();
+        }
+        if (value.getM() != null) {
+            return toDocument(value.getM());
+        }
+        if (value.getL() != null) {
+            List<Object> list = new ArrayList<>(value.getL().size());
+            for (AttributeValue item : value.getL()) {
+                list.add(toValue(item));
+            }
+            return list;
+        }
+        if (value.getSS() != null) {
+            return new LinkedHashSet<>(value.getSS());
+        }
+        if (value.getNS() != null) {
+            return new LinkedHashSet<>(value.getNS());
+        }
+        if (value.getB() != null) {
+            return toBytes(value.getB());
+        }
+        if (value.getBS() != null) {
+            Set<byte[]> set = new LinkedHashSet<>(getCapacity(value.getBS().size()));
+            for (ByteBuffer buffer : value.getBS()) {
+                set.add(toBytes(buffer));
+            }
+            return set;
+        }
+        if (Boolean.TRUE.equals(value.getNULL())) {
+            return null;
+        }
+        throw new IllegalArgumentException("Unsupported attribute value " + value);
+    }
+
+    protected byte[] toBytes(final ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    protected int getCapacity(final int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+}
@@ -42,15 +42,91 @@ public abstract class AwsConfig {
     public static final String WORKER_WORKER_ID_CONFIG_KEY = "workerId";
     public static final String WORKER_STREAM_CONFIG_KEY = "stream";
     public static final String TABLES_CONFIG_KEY = "tables";
+    public static final String BULK_MAX_DOCUMENTS_CONFIG_KEY = "bulk.maxDocuments";
+    public static final String BULK_MAX_BYTES_CONFIG_KEY = "bulk.maxBytes";
+    public static final String DEDUPE_MAX_ENTRIES_CONFIG_KEY = "dedupe.maxEntries";
+    public static final String MAPPINGS_CONFIG_KEY = "mappings";
+    public static final String SCAN_SEGMENTS_CONFIG_KEY = "scan.segments";
+    public static final String SCAN_THREADS_CONFIG_KEY = "scan.threads";
+    public static final String SCAN_TABLE_ORDER_CONFIG_KEY = "scan.tableOrder";
+    public static final String SCAN_PREFETCH_PAGES_CONFIG_KEY = "scan.prefetchPages";
+    public static final String SCAN_PROGRESS_FOLDER_CONFIG_KEY = "scan.progressFolder";
+    public static final String SCAN_READ_CAPACITY_SHARE_CONFIG_KEY = "scan.readCapacityShare";
+    public static final String SCAN_MAX_READ_CAPACITY_CONFIG_KEY = "scan.maxReadCapacity";
+    public static final String SCAN_SAVE_INTERVAL_CONFIG_KEY = "scan.saveIntervalMillis";
     public static final String IS_DYNAMO_CONFIG_KEY = AWS_SECTION + ".kinesis.isDynamo";
     public static final String STREAM_INITIAL_POSITION_KEY = AWS_SECTION + ".kinesis.initialPosition";
     public static final String KINESIS_METRICS_ENABLED_KEY = AWS_SECTION + ".kinesis.metrics.enabled";
     public static final String KINESIS_METRICS_LEVEL_KEY = AWS_SECTION + ".kinesis.metrics.level";
     public static final String MAX_PROCESSING_RETRIES_KEY = AWS_SECTION + ".kinesis.maxProcessingRetries";
     public static final String MAX_CHECKPOINT_RETRIES_KEY = AWS_SECTION + ".kinesis.maxCheckpointRetries";
+    public static final String PAYLOAD_FORMAT_KEY = AWS_SECTION + ".kinesis.payloadFormat";
+    public static final String MODIFY_FILTER_ENABLED_KEY = AWS_SECTION + ".kinesis.modifyFilter.enabled";
+    public static final String MODIFY_FILTER_FIELDS_KEY = AWS_SECTION + ".kinesis.modifyFilter.fields";
+    public static final String KINESIS_DEDUPE_MAX_ENTRIES_KEY = AWS_SECTION + ".kinesis." + DEDUPE_MAX_ENTRIES_CONFIG_KEY;
+    public static final String KINESIS_MAPPINGS_KEY = AWS_SECTION + ".kinesis." + MAPPINGS_CONFIG_KEY;
+    public static final String COALESCE_RECORDS_KEY = AWS_SECTION + ".kinesis.coalesceRecords";
+    public static final String INDEXING_THREADS_KEY = AWS_SECTION + ".kinesis.indexingThreads";
+    public static final String COMMIT_MAX_DOCUMENTS_KEY = AWS_SECTION + ".kinesis.commit.maxDocuments";
+    public static final String COMMIT_MAX_AGE_KEY = AWS_SECTION + ".kinesis.commit.maxAgeMillis";
+    public static final String COMMIT_WITHIN_KEY = AWS_SECTION + ".kinesis.commit.withinMillis";
+    public static final String CHECKPOINT_POLICY_KEY = AWS_SECTION + ".kinesis.checkpoint.policy";
+    public static final String CHECKPOINT_INTERVAL_KEY = AWS_SECTION + ".kinesis.checkpoint.intervalMillis";
+    public static final String CHECKPOINT_MAX_RECORDS_KEY = AWS_SECTION + ".kinesis.checkpoint.maxRecords";
+    public static final String CHECKPOINT_MAX_BYTES_KEY = AWS_SECTION + ".kinesis.checkpoint.maxBytes";
+    public static final String CHECKPOINT_CATCH_UP_INTERVAL_KEY = AWS_SECTION + ".kinesis.checkpoint.catchUpIntervalMillis";
+    public static final String CHECKPOINT_LAG_THRESHOLD_KEY = AWS_SECTION + ".kinesis.checkpoint.lagThresholdMillis";
+    public static final String QUARANTINE_ENABLED_KEY = AWS_SECTION + ".kinesis.quarantine.enabled";
+    public static final String QUARANTINE_FOLDER_KEY = AWS_SECTION + ".kinesis.quarantine.folder";
+    public static final String PIPELINE_ENABLED_KEY = AWS_SECTION + ".kinesis.pipeline.enabled";
+    public static final String PIPELINE_QUEUE_SIZE_KEY = AWS_SECTION + ".kinesis.pipeline.queueSize";
+    public static final String SPOOL_ENABLED_KEY = AWS_SECTION + ".kinesis.spool.enabled";
+    public static final String SPOOL_FOLDER_KEY = AWS_SECTION + ".kinesis.spool.folder";
+    public static final String SPOOL_MAX_SEGMENT_BYTES_KEY = AWS_SECTION + ".kinesis.spool.maxSegmentBytes";
+    public static final String SPOOL_MAX_BYTES_KEY = AWS_SECTION + ".kinesis.spool.maxBytes";
+    public static final String SPOOL_DRAIN_THRESHOLD_BYTES_KEY = AWS_SECTION + ".kinesis.spool.drainThresholdBytes";
+    public static final String KINESIS_BULK_MAX_DOCUMENTS_KEY = AWS_SECTION + ".kinesis." + BULK_MAX_DOCUMENTS_CONFIG_KEY;
+    public static final String KINESIS_BULK_MAX_BYTES_KEY = AWS_SECTION + ".kinesis." + BULK_MAX_BYTES_CONFIG_KEY;
 
     public static final String CONTINUE_ON_ERROR_DEFAULT = "true";
     public static final String IS_DYNAMO_DEFAULT = "false";
+    public static final String PAYLOAD_FORMAT_DEFAULT = "json";
+    public static final String MODIFY_FILTER_ENABLED_DEFAULT = "false";
+    public static final String DEDUPE_MAX_ENTRIES_DEFAULT = "0";
+    public static final String COALESCE_RECORDS_DEFAULT = "true";
+    public static final String INDEXING_THREADS_DEFAULT = "1";
+    public static final String CHECKPOINT_POLICY_TIME = "time";
+    public static final String CHECKPOINT_POLICY_RECORDS = "records";
+    public static final String CHECKPOINT_POLICY_BYTES = "bytes";
+    public static final String CHECKPOINT_POLICY_LAG = "lag";
+    public static final String CHECKPOINT_POLICY_DEFAULT = CHECKPOINT_POLICY_TIME;
+    public static final String CHECKPOINT_INTERVAL_DEFAULT = "60000";
+    public static final String CHECKPOINT_MAX_RECORDS_DEFAULT = "10000";
+    public static final String CHECKPOINT_MAX_BYTES_DEFAULT = "10485760";
+    public static final String CHECKPOINT_CATCH_UP_INTERVAL_DEFAULT = "10000";
+    public static final String CHECKPOINT_LAG_THRESHOLD_DEFAULT = "60000";
+    public static final String QUARANTINE_ENABLED_DEFAULT = "true";
+    public static final String QUARANTINE_FOLDER_DEFAULT = "data/quarantine";
+    public static final String PIPELINE_ENABLED_DEFAULT = "false";
+    public static final String PIPELINE_QUEUE_SIZE_DEFAULT = "2";
+    public static final String SPOOL_ENABLED_DEFAULT = "false";
+    public static final String SPOOL_FOLDER_DEFAULT = "data/spool";
+    public static final String SPOOL_MAX_SEGMENT_BYTES_DEFAULT = "67108864";
+    public static final String SPOOL_MAX_BYTES_DEFAULT = "1073741824";
+    public static final String SPOOL_DRAIN_THRESHOLD_BYTES_DEFAULT = "1048576";
+    public static final String SCAN_SEGMENTS_DEFAULT = "1";
+    public static final String SCAN_THREADS_DEFAULT = "4";
+    public static final String SCAN_TABLE_ORDER_CONFIGURED = "configured";
+    public static final String SCAN_TABLE_ORDER_SMALLEST = "smallest";
+    public static final String SCAN_TABLE_ORDER_LARGEST = "largest";
+    public static final String SCAN_TABLE_ORDER_DEFAULT = SCAN_TABLE_ORDER_CONFIGURED;
+    public static final String SCAN_PREFETCH_PAGES_DEFAULT = "1";
+    public static final String SCAN_PROGRESS_FOLDER_DEFAULT = "data/scan";
+    public static final String SCAN_SAVE_INTERVAL_DEFAULT = "30000";
+    public static final String SCAN_READ_CAPACITY_SHARE_DEFAULT = "0";
+    public static final String SCAN_MAX_READ_CAPACITY_DEFAULT = "0";
+    public static final String BULK_MAX_DOCUMENTS_DEFAULT = "100";
+    public static final String BULK_MAX_BYTES_DEFAULT = "5242880";
     
     public static boolean getContinueOnError(final Configuration config) {
         return config.getBoolean(CONTINUE_ON_ERROR_CONFIG_KEY, Boolean.valueOf(CONTINUE_ON_ERROR_DEFAULT));
@@ -65,6 +141,60 @@ public abstract class AwsConfig {
         }
     }
 
+    public static int getBulkMaxDocuments(final Configuration config) {
+        return config.getInt(BULK_MAX_DOCUMENTS_CONFIG_KEY, Integer.parseInt(BULK_MAX_DOCUMENTS_DEFAULT));
+    }
+
+    public static long getBulkMaxBytes(final Configuration config) {
+        return config.getLong(BULK_MAX_BYTES_CONFIG_KEY, Long.parseLong(BULK_MAX_BYTES_DEFAULT));
+    }
+
+    public static int getDedupeMaxEntries(final Configuration config) {
+        return config.getInt(DEDUPE_MAX_ENTRIES_CONFIG_KEY, Integer.parseInt(DEDUPE_MAX_ENTRIES_DEFAULT));
+    }
+
+    public static int getScanSegments(final Configuration config) {
+        return Math.max(config.getInt(SCAN_SEGMENTS_CONFIG_KEY, Integer.parseInt(SCAN_SEGMENTS_DEFAULT)), 1);
+    }
+
+    public static int getScanThreads(final Configuration config) {
+        return Math.max(config.getInt(SCAN_THREADS_CONFIG_KEY, Integer.parseInt(SCAN_THREADS_DEFAULT)), 1);
+    }
+
+    public static String getScanTableOrder(final Configuration config) {
+        String order = config.getString(SCAN_TABLE_ORDER_CONFIG_KEY, SCAN_TABLE_ORDER_DEFAULT);
+        switch (order) {
+        case SCAN_TABLE_ORDER_CONFIGURED:
+        case SCAN_TABLE_ORDER_SMALLEST:
+        case SCAN_TABLE_ORDER_LARGEST:
+            return order;
+        default:
+            throw new IllegalArgumentException("Unknown table order '" + order + "'");
+        }
+    }
+
+    public static int getScanPrefetchPages(final Configuration config) {
+        return Math.max(config.getInt(SCAN_PREFETCH_PAGES_CONFIG_KEY, Integer.parseInt(SCAN_PREFETCH_PAGES_DEFAULT)),
+                        0);
+    }
+
+    public static String getScanProgressFolder(final Configuration config) {
+        return config.getString(SCAN_PROGRESS_FOLDER_CONFIG_KEY, SCAN_PROGRESS_FOLDER_DEFAULT);
+    }
+
+    public static long getScanSaveInterval(final Configuration config) {
+        return config.getLong(SCAN_SAVE_INTERVAL_CONFIG_KEY, Long.parseLong(SCAN_SAVE_INTERVAL_DEFAULT));
+    }
+
+    public static double getScanReadCapacityShare(final Configuration config) {
+        return config.getDouble(SCAN_READ_CAPACITY_SHARE_CONFIG_KEY,
+                                Double.parseDouble(SCAN_READ_CAPACITY_SHARE_DEFAULT));
+    }
+
+    public static double getScanMaxReadCapacity(final Configuration config) {
+        return config.getDouble(SCAN_MAX_READ_CAPACITY_CONFIG_KEY, Double.parseDouble(SCAN_MAX_READ_CAPACITY_DEFAULT));
+    }
+
     public static String getRegionName(final Configuration config) {
         return config.getString(REGION_CONFIG_KEY);
     }
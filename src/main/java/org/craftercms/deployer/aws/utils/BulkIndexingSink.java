@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.craftercms.search.exception.SearchServerException;
+import org.craftercms.search.service.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers updates and deletes and sends them to the search index in batches bounded by number of documents and
+ * size. Each operation keeps a reference to the object it was created from, so that results can be mapped back.
+ *
+ * <p>The search service API has no bulk operation, so every operation of a batch is still sent in its own request:
+ * batches bound the memory used by pending operations and group the handling of their results, they don't reduce
+ * the number of round trips to the search server.</p>
+ *
+ * <p>Instances are not thread safe, each thread should use its own sink.</p>
+ *
+ * @param <T> type of the objects operations are created from
+ */
+@SuppressWarnings("rawtypes")
+public class BulkIndexingSink<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexingSink.class);
+
+    public static final int DEFAULT_MAX_BATCH_DOCUMENTS = Integer.parseInt(AwsConfig.BULK_MAX_DOCUMENTS_DEFAULT);
+    public static final long DEFAULT_MAX_BATCH_BYTES = Long.parseLong(AwsConfig.BULK_MAX_BYTES_DEFAULT);
+
+    /**
+     * Instance of search service
+     */
+    protected final SearchService searchService;
+
+    /**
+     * Helper used to send each operation
+     */
+    protected final SearchHelper searchHelper;
+
+    /**
+     * Site to index data for
+     */
+    protected final String siteName;
+
+    /**
+     * Maximum number of operations in a single batch
+     */
+    protected final int maxBatchDocuments;
+
+    /**
+     * Maximum estimated size of a single batch
+     */
+    protected final long maxBatchBytes;
+
+    /**
+     * Circuit breaker for the search server, shared by default
+     */
+    protected SearchCircuitBreaker circuitBreaker = SearchCircuitBreaker.getShared();
+
+    /**
+     * Limits the concurrent requests sent to the search server, shared by default
+     */
+    protected SearchConcurrencyLimiter concurrencyLimiter = SearchConcurrencyLimiter.getShared();
+
+    /**
+     * Content of the documents already in the index, if null all operations are sent
+     */
+    protected IndexedDocumentCache documentCache;
+
+    protected List<Result<T>> buffer = new ArrayList<>();
+    protected long bufferBytes;
+    protected List<Result<T>> results = new ArrayList<>();
+
+    /**
+     * Set once the search server reports it is unavailable, remaining operations are failed without being sent
+     */
+    protected SearchServerException unavailable;
+
+    public BulkIndexingSink(final SearchService searchService, final SearchHelper searchHelper,
+                            final String siteName, final int maxBatchDocuments, final long maxBatchBytes) {
+        this.searchService = searchService;
+        this.searchHelper = searchHelper;
+        this.siteName = siteName;
+        this.maxBatchDocuments = maxBatchDocuments > 0 ? maxBatchDocuments : DEFAULT_MAX_BATCH_DOCUMENTS;
+        this.maxBatchBytes = maxBatchBytes > 0 ? maxBatchBytes : DEFAULT_MAX_BATCH_BYTES;
+    }
+
+    public void setCircuitBreaker(final SearchCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public void setConcurrencyLimiter(final SearchConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public void setDocumentCache(final IndexedDocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
+    /**
+     * Adds an operation to the buffer, sending the current batch first if it would exceed the limits.
+     * @param operation the operation to perform
+     * @param source the object the operation was created from
+     */
+    public void add(final IndexingOperation operation, final T source) {
+        long size = operation.getSize();
+        if (!buffer.isEmpty() && (buffer.size() >= maxBatchDocuments || bufferBytes + size > maxBatchBytes)) {
+            sendBuffer();
+        }
+        buffer.add(new Result<>(operation, source));
+        bufferBytes += size;
+    }
+
+    /**
+     * Sends all buffered operations.
+     * @return the results for all operations added since the last flush, in the order they were added
+     */
+    public List<Result<T>> flush() {
+        if (!buffer.isEmpty()) {
+            sendBuffer();
+        }
+        List<Result<T>> flushed = results;
+        results = new ArrayList<>();
+        unavailable = null;
+        return flushed;
+    }
+
+    public boolean isEmpty() {
+        return buffer.isEmpty() && results.isEmpty();
+    }
+
+    protected void sendBuffer() {
+        List<Result<T>> batch = buffer;
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+
+        if (unavailable != null) {
+            batch.forEach(result -> fail(result, unavailable));
+        } else {
+            logger.debug("Sending batch of {} operation(s) for site '{}'", batch.size(), siteName);
+            sendBatch(batch);
+        }
+        results.addAll(batch);
+    }
+
+    /**
+     * Sends a batch of operations to the search index and records the outcome of each one. The search service API
+     * used by this version accepts a single document per request, so operations are sent in order, one request
+     * each; extensions can override this method to use a bulk capable client. Each operation waits for a slot of
+     * the {@link SearchConcurrencyLimiter}, then fails without being sent while the {@link SearchCircuitBreaker} is
+     * open.
+     * Operations that would not change the document in the {@link IndexedDocumentCache} are skipped.
+     * @param batch operations to send
+     */
+    protected void sendBatch(final List<Result<T>> batch) {
+        for (Result<T> result : batch) {
+            if (unavailable != null) {
+                fail(result, unavailable);
+                continue;
+            }
+            if (documentCache != null && documentCache.isIndexed(result.operation)) {
+                logger.debug("Skipping unchanged document '{}'", result.operation.getId());
+                result.skipped = true;
+                continue;
+            }
+            try {
+                concurrencyLimiter.execute(circuitBreaker,
+                    () -> searchHelper.execute(searchService, siteName, result.operation));
+                if (documentCache != null) {
+                    documentCache.indexed(result.operation);
+                }
+            } catch (SearchServerException e) {
+                unavailable = e;
+                fail(result, e);
+            } catch (Exception e) {
+                fail(result, e);
+            }
+        }
+    }
+
+    protected void fail(final Result<T> result, final Exception failure) {
+        result.failure = failure;
+        if (documentCache != null) {
+            documentCache.invalidate(result.operation.getId());
+        }
+    }
+
+    /**
+     * Outcome of a single operation.
+     * @param <T> type of the object the operation was created from
+     */
+    public static class Result<T> {
+
+        protected final IndexingOperation operation;
+        protected final T source;
+        protected Exception failure;
+        protected boolean skipped;
+
+        public Result(final IndexingOperation operation, final T source) {
+            this.operation = operation;
+            this.source = source;
+        }
+
+        public IndexingOperation getOperation() {
+            return operation;
+        }
+
+        public T getSource() {
+            return source;
+        }
+
+        /**
+         * @return the exception thrown when sending the operation, null if it was successful
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+
+        /**
+         * @return true if the operation was not sent because the index already had the same content
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        public boolean isSearchUnavailable() {
+            return failure instanceof SearchServerException;
+        }
+
+    }
+
+}
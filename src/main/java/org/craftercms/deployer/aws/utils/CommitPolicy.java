@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+/**
+ * Defines when pending changes should be committed to the search index. If no limit is defined every batch of
+ * changes is committed right away.
+ */
+public class CommitPolicy {
+
+    /**
+     * Maximum number of uncommitted documents (0 or less disables the limit)
+     */
+    protected final int maxDocuments;
+
+    /**
+     * Maximum time in milliseconds a change can stay uncommitted, checked when a batch is completed (0 or less
+     * disables the limit)
+     */
+    protected final long maxAgeMillis;
+
+    /**
+     * Time in milliseconds after the first uncommitted change when a commit will be triggered in the background,
+     * even if no other batches are received (0 or less disables the deferred commit)
+     */
+    protected final long commitWithinMillis;
+
+    public CommitPolicy(final int maxDocuments, final long maxAgeMillis, final long commitWithinMillis) {
+        this.maxDocuments = maxDocuments;
+        this.maxAgeMillis = maxAgeMillis;
+        this.commitWithinMillis = commitWithinMillis;
+    }
+
+    /**
+     * @return a policy that commits after every batch
+     */
+    public static CommitPolicy immediate() {
+        return new CommitPolicy(0, 0, 0);
+    }
+
+    /**
+     * @return true if every batch should be committed right away
+     */
+    public boolean isImmediate() {
+        return maxDocuments <= 0 && maxAgeMillis <= 0 && commitWithinMillis <= 0;
+    }
+
+    /**
+     * Indicates if the pending changes have reached any of the configured limits.
+     * @param pendingDocuments number of uncommitted documents
+     * @param oldestChangeMillis time of the oldest uncommitted change
+     * @param now current time
+     * @return true if a commit should be performed
+     */
+    public boolean isCommitRequired(final int pendingDocuments, final long oldestChangeMillis, final long now) {
+        if (isImmediate()) {
+            return true;
+        }
+        if (pendingDocuments <= 0) {
+            return false;
+        }
+        return (maxDocuments > 0 && pendingDocuments >= maxDocuments) ||
+               (maxAgeMillis > 0 && now - oldestChangeMillis >= maxAgeMillis);
+    }
+
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getCommitWithinMillis() {
+        return commitWithinMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (isImmediate()) {
+            return "every batch";
+        }
+        return String.format("max documents: %d, max age: %dms, commit within: %dms",
+            maxDocuments, maxAgeMillis, commitWithinMillis);
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Defines which attributes of a table are indexed and how. Each attribute name is compiled once into a
+ * {@link Field} plan that is reused for every item, so attributes that are not indexed are skipped before their
+ * values are converted.
+ *
+ * <ul>
+ *     <li>{@code includes}: attributes to index, if empty all attributes not excluded are indexed</li>
+ *     <li>{@code excludes}: attributes that are never indexed</li>
+ *     <li>{@code renames}: field name to use in the document for an attribute</li>
+ *     <li>{@code types}: type the value of an attribute is converted to: string, long, double or boolean</li>
+ *     <li>{@code idKey}: key attribute holding the document id, {@code id} by default</li>
+ * </ul>
+ *
+ * The id attribute is always indexed as the {@code id} field, since it identifies the document. If it is not
+ * {@code id}, an attribute named {@code id} is only indexed when it is renamed.
+ */
+public class DocumentMapping {
+
+    public static final String TABLE_CONFIG_KEY = "table";
+    public static final String INCLUDES_CONFIG_KEY = "includes";
+    public static final String EXCLUDES_CONFIG_KEY = "excludes";
+    public static final String RENAMES_CONFIG_KEY = "renames";
+    public static final String TYPES_CONFIG_KEY = "types";
+    public static final String ID_KEY_CONFIG_KEY = "idKey";
+
+    /**
+     * Maximum number of attribute plans kept, to protect against tables with unbounded attribute names
+     */
+    protected static final int MAX_COMPILED_FIELDS = 10000;
+
+    protected static final String ID_FIELD = "id";
+
+    /**
+     * Supported type conversions
+     */
+    public enum FieldType {
+        STRING,
+        LONG,
+        DOUBLE,
+        BOOLEAN
+    }
+
+    protected final Set<String> includes;
+    protected final Set<String> excludes;
+    protected final Map<String, String> renames;
+    protected final Map<String, FieldType> types;
+
+    /**
+     * Key attribute holding the document id
+     */
+    protected final String idKey;
+
+    /**
+     * Plans for the attributes already seen
+     */
+    protected final Map<String, Field> fields = new ConcurrentHashMap<>();
+
+    public DocumentMapping(final Collection<String> includes, final Collection<String> excludes,
+                           final Map<String, String> renames, final Map<String, FieldType> types) {
+        this(includes, excludes, renames, types, ID_FIELD);
+    }
+
+    public DocumentMapping(final Collection<String> includes, final Collection<String> excludes,
+                           final Map<String, String> renames, final Map<String, FieldType> types,
+                           final String idKey) {
+        this.includes = new HashSet<>(includes);
+        this.excludes = new HashSet<>(excludes);
+        this.renames = new HashMap<>(renames);
+        this.types = new HashMap<>(types);
+        this.idKey = StringUtils.isNotEmpty(idKey) ? idKey : ID_FIELD;
+    }
+
+    /**
+     * Reads the mappings for all tables.
+     * @param configs the configuration of each mapping
+     * @return the mappings indexed by table name
+     * @throws IllegalArgumentException if a mapping has no table or uses an unknown type
+     */
+    public static Map<String, DocumentMapping> fromConfiguration(final List<HierarchicalConfiguration> configs) {
+        Map<String, DocumentMapping> mappings = new LinkedHashMap<>();
+        for (Configuration config : configs) {
+            String table = config.getString(TABLE_CONFIG_KEY);
+            if (StringUtils.isEmpty(table)) {
+                throw new IllegalArgumentException("Missing table name for document mapping");
+            }
+            Map<String, FieldType> types = new HashMap<>();
+            getMap(config, TYPES_CONFIG_KEY).forEach((attribute, type) -> {
+                try {
+                    types.put(attribute, FieldType.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown type '" + type + "' for attribute '" + attribute +
+                                                       "' of table '" + table + "'", e);
+                }
+            });
+            mappings.put(table, new DocumentMapping(
+                config.getList(String.class, INCLUDES_CONFIG_KEY, Collections.emptyList()),
+                config.getList(String.class, EXCLUDES_CONFIG_KEY, Collections.emptyList()),
+                getMap(config, RENAMES_CONFIG_KEY),
+                types,
+                config.getString(ID_KEY_CONFIG_KEY, ID_FIELD)));
+        }
+        return mappings;
+    }
+
+    /**
+     * Provides the plan for an attribute.
+     * @param attribute the attribute name
+     * @return the plan, {@link Field#isIndexed()} is false if the attribute should be skipped
+     */
+    public Field getField(final String attribute) {
+        Field field = fields.get(attribute);
+        if (field == null) {
+            field = compile(attribute);
+            if (fields.size() < MAX_COMPILED_FIELDS) {
+                fields.put(attribute, field);
+            }
+        }
+        return field;
+    }
+
+    /**
+     * @return the name of the key attribute holding the document id
+     */
+    public String getIdKey() {
+        return idKey;
+    }
+
+    protected Field compile(final String attribute) {
+        if (idKey.equals(attribute)) {
+            return new Field(ID_FIELD, null);
+        }
+        if (excludes.contains(attribute) || (!includes.isEmpty() && !includes.contains(attribute))) {
+            return Field.SKIPPED;
+        }
+        if (ID_FIELD.equals(attribute) && !renames.containsKey(attribute)) {
+            // it would replace the document id
+            return Field.SKIPPED;
+        }
+        return new Field(renames.getOrDefault(attribute, attribute), types.get(attribute));
+    }
+
+    protected static Map<String, String> getMap(final Configuration config, final String key) {
+        Map<String, String> map = new HashMap<>();
+        Configuration subset = config.subset(key);
+        for (Iterator<String> keys = subset.getKeys(); keys.hasNext();) {
+            String name = keys.next();
+            map.put(name, subset.getString(name));
+        }
+        return map;
+    }
+
+    /**
+     * Compiled plan for a single attribute.
+     */
+    public static class Field {
+
+        public static final Field SKIPPED = new Field(null, null);
+
+        protected final String name;
+        protected final FieldType type;
+
+        public Field(final String name, final FieldType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public boolean isIndexed() {
+            return name != null;
+        }
+
+        /**
+         * @return the name of the field in the document
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Converts a value to the type of the field, collections are converted element by element.
+         * @param value the value
+         * @return the converted value
+         * @throws IllegalArgumentException if the value can't be converted
+         */
+        public Object convert(final Object value) {
+            if (type == null || value == null) {
+                return value;
+            }
+            if (value instanceof Set) {
+                Set<Object> set = new LinkedHashSet<>();
+                ((Set<?>) value).forEach(item -> set.add(convert(item)));
+                return set;
+            }
+            if (value instanceof List) {
+                List<Object> list = new ArrayList<>(((List<?>) value).size());
+                ((List<?>) value).forEach(item -> list.add(convert(item)));
+                return list;
+            }
+            if (value instanceof Map) {
+                throw new IllegalArgumentException("Unable to convert map for field '" + name + "' to " + type);
+            }
+            String text = value instanceof byte[] ?
+                Base64.getEncoder().encodeToString((byte[]) value) : value.toString();
+            try {
+                switch (type) {
+                case LONG:
+                    return new BigDecimal(text).longValueExact();
+                case DOUBLE:
+                    return Double.valueOf(text);
+                case BOOLEAN:
+                    return value instanceof Boolean ? value : Boolean.valueOf("1".equals(text) ||
+                                                                             Boolean.parseBoolean(text));
+                default:
+                    return text;
+                }
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw new IllegalArgumentException("Unable to convert '" + text + "' for field '" + name + "' to " +
+                                                   type, e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the content of the documents already sent to the search index, so that replayed records don't send the
+ * same document again. Each entry keeps a 64-bit hash of the document id and a 64-bit hash of its XML (or a marker
+ * for deleted documents) in primitive arrays, taking 16 bytes regardless of the size of the document.
+ *
+ * <p>Entries are grouped in buckets of {@link #WAYS} slots selected by the id hash. Each bucket is kept in least
+ * recently used order, so when a bucket is full the entry that has not been used for longest is evicted.</p>
+ *
+ * <p>The cache only reflects the changes made through it: any operation that fails or is sent to the index by other
+ * means must be {@link #invalidate(String) invalidated}. It is only kept in memory, so it is empty after a restart
+ * and the first change for each document is always sent.</p>
+ */
+public class IndexedDocumentCache {
+
+    /**
+     * Number of entries in each bucket
+     */
+    public static final int WAYS = 8;
+
+    protected static final int LOCK_COUNT = 64;
+
+    protected static final long EMPTY = 0L;
+    protected static final long DELETED = 0x9E3779B97F4A7C15L;
+
+    private static final ConcurrentMap<String, IndexedDocumentCache> sharedCaches = new ConcurrentHashMap<>();
+
+    /**
+     * Hashes of the document ids, {@link #EMPTY} for unused slots
+     */
+    protected final long[] keys;
+
+    /**
+     * Hashes of the indexed content for each id
+     */
+    protected final long[] contents;
+
+    protected final int bucketMask;
+    protected final Object[] locks;
+
+    protected final LongAdder hits = new LongAdder();
+    protected final LongAdder misses = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache with room for at least the given number of entries, the number of buckets is rounded up to a
+     * power of two.
+     * @param maxEntries the minimum number of entries
+     */
+    public IndexedDocumentCache(final int maxEntries) {
+        int buckets = getBucketCount(maxEntries);
+        this.keys = new long[buckets * WAYS];
+        this.contents = new long[buckets * WAYS];
+        this.bucketMask = buckets - 1;
+        this.locks = new Object[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Provides the cache for a site, shared by all processors in the process. If the existing cache has a different
+     * capacity (for example because the target was reloaded with a new configuration) it is replaced by an empty one,
+     * processors created before keep using the previous cache.
+     * @param siteName the site name
+     * @param maxEntries the minimum number of entries
+     * @return the cache
+     */
+    public static IndexedDocumentCache getShared(final String siteName, final int maxEntries) {
+        int capacity = getBucketCount(maxEntries) * WAYS;
+        return sharedCaches.compute(siteName, (site, cache) ->
+            cache != null && cache.getCapacity() == capacity ? cache : new IndexedDocumentCache(maxEntries));
+    }
+
+    /**
+     * Checks if an operation would leave the index as it already is.
+     * @param operation the operation
+     * @return true if the document already has the same content, or was already deleted
+     */
+    public boolean isIndexed(final IndexingOperation operation) {
+        long key = hashId(operation.getId());
+        long content = hashContent(operation);
+        int bucket = getBucket(key);
+        synchronized (getLock(bucket)) {
+            for (int i = bucket; i < bucket + WAYS && keys[i] != EMPTY; i++) {
+                if (keys[i] == key) {
+                    if (contents[i] == content) {
+                        moveToFront(bucket, i);
+                        hits.increment();
+                        return true;
+                    }
+                    break;
+                }
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Records an operation that has been accepted by the index.
+     * @param operation the operation
+     */
+    public void indexed(final IndexingOperation operation) {
+        long key = hashId(operation.getId());
+        long content = hashContent(operation);
+        int bucket = getBucket(key);
+        synchronized (getLock(bucket)) {
+            int slot = find(bucket, key);
+            if (slot < 0) {
+                slot = bucket + WAYS - 1;
+                if (keys[slot] != EMPTY) {
+                    evictions.increment();
+                }
+            }
+            moveToFront(bucket, slot);
+            keys[bucket] = key;
+            contents[bucket] = content;
+        }
+    }
+
+    /**
+     * Forgets the content of a document, the next operation for it will be sent to the index.
+     * @param id the document id
+     */
+    public void invalidate(final String id) {
+        long key = hashId(id);
+        int bucket = getBucket(key);
+        synchronized (getLock(bucket)) {
+            int slot = find(bucket, key);
+            if (slot < 0) {
+                return;
+            }
+            int last = bucket + WAYS - 1;
+            System.arraycopy(keys, slot + 1, keys, slot, last - slot);
+            System.arraycopy(contents, slot + 1, contents, slot, last - slot);
+            keys[last] = EMPTY;
+            contents[last] = EMPTY;
+        }
+    }
+
+    /**
+     * Forgets the content of all documents, for example before the whole index is rebuilt.
+     */
+    public void clear() {
+        for (int bucket = 0; bucket < keys.length; bucket += WAYS) {
+            synchronized (getLock(bucket)) {
+                Arrays.fill(keys, bucket, bucket + WAYS, EMPTY);
+                Arrays.fill(contents, bucket, bucket + WAYS, EMPTY);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the ratio of lookups that found the same content, 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total > 0 ? (double) hitCount / total : 0;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("capacity: %d, hits: %d, misses: %d, hit rate: %.2f%%, evictions: %d",
+            getCapacity(), getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+
+    /**
+     * @return the smallest power of two of buckets that can hold the given number of entries
+     */
+    protected static int getBucketCount(final int maxEntries) {
+        int buckets = Math.max(maxEntries / WAYS + (maxEntries % WAYS != 0 ? 1 : 0), 1);
+        int rounded = Integer.highestOneBit(buckets);
+        return rounded < buckets ? rounded << 1 : rounded;
+    }
+
+    protected int find(final int bucket, final long key) {
+        for (int i = bucket; i < bucket + WAYS && keys[i] != EMPTY; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Shifts the entries before the given slot one position, leaving the slot at the start of the bucket.
+     */
+    protected void moveToFront(final int bucket, final int slot) {
+        if (slot == bucket) {
+            return;
+        }
+        long key = keys[slot];
+        long content = contents[slot];
+        System.arraycopy(keys, bucket, keys, bucket + 1, slot - bucket);
+        System.arraycopy(contents, bucket, contents, bucket + 1, slot - bucket);
+        keys[bucket] = key;
+        contents[bucket] = content;
+    }
+
+    protected int getBucket(final long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * WAYS;
+    }
+
+    protected Object getLock(final int bucket) {
+        return locks[(bucket / WAYS) & (LOCK_COUNT - 1)];
+    }
+
+    protected long hashId(final String id) {
+        long hash = hash(id, 0x84222325CBF29CE4L);
+        return hash != EMPTY ? hash : 1;
+    }
+
+    protected long hashContent(final IndexingOperation operation) {
+        if (operation.getType() == IndexingOperation.Type.DELETE) {
+            return DELETED;
+        }
+        return hash(operation.getXml(), 0xCBF29CE484222325L);
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the value, followed by a finalizer to spread the bits.
+     */
+    protected static long hash(final CharSequence value, final long seed) {
+        long hash = seed;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+/**
+ * Holds a single change ready to be sent to the search index.
+ */
+public class IndexingOperation {
+
+    public enum Type {
+        UPDATE,
+        DELETE
+    }
+
+    protected final Type type;
+
+    /**
+     * Id of the document
+     */
+    protected final String id;
+
+    /**
+     * Serialized document, only for updates
+     */
+    protected final String xml;
+
+    protected IndexingOperation(final Type type, final String id, final String xml) {
+        this.type = type;
+        this.id = id;
+        this.xml = xml;
+    }
+
+    public static IndexingOperation update(final String id, final String xml) {
+        return new IndexingOperation(Type.UPDATE, id, xml);
+    }
+
+    public static IndexingOperation delete(final String id) {
+        return new IndexingOperation(Type.DELETE, id, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getXml() {
+        return xml;
+    }
+
+    /**
+     * @return the estimated size of the request for this operation
+     */
+    public long getSize() {
+        return id.length() + (xml != null ? xml.length() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return type + " '" + id + "'";
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable queue of indexing operations stored in append-only segment files, used to keep accepting changes while
+ * the search server is unavailable. Operations are written as JSON lines and flushed to disk before
+ * {@link #append(List)} returns, so the records they came from can be checkpointed right away.
+ *
+ * <p>While the spool holds operations all new changes must be added to it as well, so that they are sent to the index
+ * after the older ones. Segments are replayed in order by a {@link SpoolReplayer} and deleted once committed. Once
+ * the backlog is small, writers can stop adding to the spool and wait for it to be empty with
+ * {@link #awaitDrained(long)} before sending changes directly again.</p>
+ */
+public class IndexingSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexingSpool.class);
+
+    public static final String SEGMENT_PREFIX = "segment-";
+    public static final String SEGMENT_SUFFIX = ".jsonl";
+
+    /**
+     * Default minimum time in milliseconds the segment being written stays open before it can be replayed
+     */
+    public static final long DEFAULT_MIN_SEGMENT_AGE_MILLIS = 5000L;
+
+    /**
+     * Folder holding the segment files
+     */
+    protected final Path folder;
+
+    /**
+     * Size in bytes from which a new segment file is started
+     */
+    protected final long maxSegmentBytes;
+
+    /**
+     * Maximum size in bytes of all segments, once reached no more operations are accepted
+     */
+    protected final long maxBytes;
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Minimum time in milliseconds the segment being written stays open before it can be replayed, so that
+     * consecutive appends share a segment instead of each one becoming its own file
+     */
+    protected long minSegmentAgeMillis = DEFAULT_MIN_SEGMENT_AGE_MILLIS;
+
+    /**
+     * Segments that are complete and waiting to be replayed, oldest first
+     */
+    protected final Deque<Path> sealedSegments = new ArrayDeque<>();
+
+    protected Path currentSegment;
+    protected FileChannel currentChannel;
+    protected long currentBytes;
+    protected long currentStartMillis;
+    protected long totalBytes;
+    protected long nextSegment;
+    protected boolean failed;
+    protected boolean closed;
+
+    public IndexingSpool(final Path folder, final long maxSegmentBytes, final long maxBytes) {
+        this.folder = folder;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMinSegmentAgeMillis(final long minSegmentAgeMillis) {
+        this.minSegmentAgeMillis = minSegmentAgeMillis;
+    }
+
+    /**
+     * Prepares the folder and loads any segments left by a previous execution.
+     * @throws IOException if the folder can't be read
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(folder);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(existing::add);
+        }
+        Collections.sort(existing);
+        for (Path segment : existing) {
+            sealedSegments.add(segment);
+            totalBytes += Files.size(segment);
+            nextSegment = Math.max(nextSegment, getSegmentNumber(segment) + 1);
+        }
+        if (!existing.isEmpty()) {
+            logger.info("Found {} spooled segment(s) in {} pending to be replayed", existing.size(), folder);
+        }
+    }
+
+    /**
+     * @return true if there are operations waiting to be sent to the index
+     */
+    public synchronized boolean isActive() {
+        return currentSegment != null || !sealedSegments.isEmpty();
+    }
+
+    /**
+     * @return true if the spool can accept more operations
+     */
+    public synchronized boolean isAvailable() {
+        return !closed && !failed && totalBytes < maxBytes;
+    }
+
+    /**
+     * Adds operations to the spool and flushes them to disk.
+     * @param operations the operations, in order
+     * @return true if the operations were stored, false if the spool is full or can't be written
+     */
+    public synchronized boolean append(final List<IndexingOperation> operations) {
+        if (operations.isEmpty()) {
+            return true;
+        }
+        if (closed || totalBytes >= maxBytes) {
+            return false;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (IndexingOperation operation : operations) {
+                out.write(serialize(operation));
+                out.write('\n');
+            }
+            byte[] bytes = out.toByteArray();
+            if (currentChannel == null || (currentBytes > 0 && currentBytes + bytes.length > maxSegmentBytes)) {
+                startSegment();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                currentChannel.write(buffer);
+            }
+            currentChannel.force(false);
+            currentBytes += bytes.length;
+            totalBytes += bytes.length;
+            failed = false;
+            notifyAll();
+            return true;
+        } catch (IOException e) {
+            logger.error("Unable to write to the spool in {}", folder, e);
+            failed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Provides the oldest segment to replay. If there are no others, the segment being written is completed once it
+     * has been open for the minimum age, or once it reaches the maximum size.
+     * @param timeoutMillis maximum time to wait if there is no segment ready
+     * @return the segment, or null if there is no segment ready
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if the current segment can't be completed
+     */
+    public synchronized Path nextSegment(final long timeoutMillis) throws InterruptedException, IOException {
+        if (!isActive() && !closed && timeoutMillis > 0) {
+            wait(timeoutMillis);
+        }
+        if (sealedSegments.isEmpty() && currentSegment != null) {
+            long remainingMillis = currentStartMillis + minSegmentAgeMillis - System.currentTimeMillis();
+            if (remainingMillis > 0 && !closed && timeoutMillis > 0) {
+                // a full segment is sealed by append, so waking up early only means there is something to replay
+                wait(Math.min(remainingMillis, timeoutMillis));
+                remainingMillis = currentStartMillis + minSegmentAgeMillis - System.currentTimeMillis();
+            }
+            if (sealedSegments.isEmpty() && currentSegment != null && remainingMillis <= 0) {
+                sealSegment();
+            }
+        }
+        return sealedSegments.peekFirst();
+    }
+
+    /**
+     * Waits until all spooled operations have been replayed. The segment being written is completed right away, so it
+     * can be replayed without waiting for its minimum age.
+     * @param timeoutMillis maximum time to wait
+     * @return true if the spool is empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitDrained(final long timeoutMillis) throws InterruptedException {
+        if (!isActive()) {
+            return true;
+        }
+        try {
+            sealSegment();
+        } catch (IOException e) {
+            logger.error("Error closing spool segment {}", currentSegment, e);
+            failed = true;
+            return false;
+        }
+        notifyAll();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remainingMillis;
+        while (isActive() && !closed && (remainingMillis = deadline - System.currentTimeMillis()) > 0) {
+            wait(remainingMillis);
+        }
+        return !isActive();
+    }
+
+    /**
+     * Deletes a segment once all its operations are in the index.
+     * @param segment the segment to delete
+     * @throws IOException if the segment can't be deleted
+     */
+    public synchronized void remove(final Path segment) throws IOException {
+        long size = Files.size(segment);
+        Files.delete(segment);
+        sealedSegments.remove(segment);
+        totalBytes = Math.max(totalBytes - size, 0);
+        if (!isActive()) {
+            logger.info("All spooled operations have been replayed");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads an operation from a line of a segment.
+     * @param line the line
+     * @return the operation, or null if the line is not valid (for example if the last write was interrupted)
+     */
+    public IndexingOperation parse(final String line) {
+        try {
+            JsonNode node = objectMapper.readTree(line);
+            IndexingOperation.Type type = IndexingOperation.Type.valueOf(node.get("type").asText());
+            String id = node.get("id").asText();
+            return type == IndexingOperation.Type.DELETE ?
+                IndexingOperation.delete(id) : IndexingOperation.update(id, node.get("xml").asText());
+        } catch (Exception e) {
+            logger.warn("Skipping invalid spool entry '{}'", line, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stops accepting operations, spooled segments are kept for the next execution.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (currentChannel != null) {
+            try {
+                sealSegment();
+            } catch (IOException e) {
+                logger.error("Error closing spool segment {}", currentSegment, e);
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    protected byte[] serialize(final IndexingOperation operation) throws IOException {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("type", operation.getType().name());
+        node.put("id", operation.getId());
+        if (operation.getXml() != null) {
+            node.put("xml", operation.getXml());
+        }
+        return objectMapper.writeValueAsString(node).getBytes(StandardCharsets.UTF_8);
+    }
+
+    protected void startSegment() throws IOException {
+        sealSegment();
+        currentSegment = folder.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        currentChannel = FileChannel.open(currentSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                                          StandardOpenOption.APPEND);
+        currentBytes = 0;
+        currentStartMillis = System.currentTimeMillis();
+        logger.debug("Started spool segment {}", currentSegment);
+    }
+
+    protected void sealSegment() throws IOException {
+        if (currentChannel != null) {
+            currentChannel.close();
+            sealedSegments.add(currentSegment);
+        }
+        currentChannel = null;
+        currentSegment = null;
+        currentBytes = 0;
+    }
+
+    protected long getSegmentNumber(final Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket that limits the read capacity consumed by the scans of a DynamoDB table. The capacity used by a
+ * request is only known once it completes, so each request reserves an estimate of its cost before it is sent and
+ * the difference with the consumed units is settled afterwards. Requests are allowed while the bucket has tokens, so
+ * segments scanning at the same time wait for each other instead of all sending a request at once.
+ *
+ * <p>Until a request completes the estimate is the cost of a full page, afterwards it follows the average cost of
+ * the completed requests.</p>
+ *
+ * <p>The rate adapts using additive increase/multiplicative decrease: it is halved every time the table reports its
+ * throughput was exceeded, and grows back towards the target by a fraction of it for every second without
+ * throttling.</p>
+ *
+ * <p>A single instance should be shared by all the segments scanning the same table.</p>
+ */
+public class ReadCapacityLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadCapacityLimiter.class);
+
+    /**
+     * Ratio applied to the rate when throttled
+     */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.5;
+
+    /**
+     * Fraction of the target rate recovered for every second without throttling
+     */
+    public static final double DEFAULT_RECOVERY_RATIO = 0.1;
+
+    /**
+     * Lowest rate as a fraction of the target
+     */
+    public static final double MIN_RATE_RATIO = 0.01;
+
+    /**
+     * Units consumed by a full page of 1MB read with eventual consistency
+     */
+    public static final double PAGE_CAPACITY_UNITS = 128;
+
+    /**
+     * Weight of the last request in the average cost
+     */
+    protected static final double ESTIMATE_WEIGHT = 0.25;
+
+    /**
+     * Name of the table, only used for logging
+     */
+    protected final String table;
+
+    /**
+     * Read capacity units per second to consume
+     */
+    protected final double targetRate;
+
+    protected final double backoffRatio;
+    protected final double recoveryRatio;
+
+    protected double rate;
+    protected double tokens;
+    protected double estimate = PAGE_CAPACITY_UNITS;
+    protected long lastRefillNanos;
+
+    public ReadCapacityLimiter(final String table, final double targetRate, final double backoffRatio,
+                               final double recoveryRatio) {
+        this.table = table;
+        this.targetRate = targetRate;
+        this.backoffRatio = backoffRatio;
+        this.recoveryRatio = recoveryRatio;
+        this.rate = targetRate;
+        this.tokens = targetRate;
+        this.lastRefillNanos = nanoTime();
+    }
+
+    public ReadCapacityLimiter(final String table, final double targetRate) {
+        this(table, targetRate, DEFAULT_BACKOFF_RATIO, DEFAULT_RECOVERY_RATIO);
+    }
+
+    /**
+     * Waits until the bucket has tokens to send a new request and reserves its estimated cost.
+     * @return the reserved units, to be settled with {@link #consumed(double, double)} or {@link #release(double)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public double acquire() throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens > 0) {
+                    tokens -= estimate;
+                    return estimate;
+                }
+                waitNanos = (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1)) + 1;
+            }
+            sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Settles the reservation of a completed request with the capacity it consumed.
+     * @param reserved units reserved by {@link #acquire()}
+     * @param units read capacity units consumed
+     */
+    public synchronized void consumed(final double reserved, final double units) {
+        refill();
+        tokens += reserved - units;
+        estimate += (units - estimate) * ESTIMATE_WEIGHT;
+    }
+
+    /**
+     * Returns the reservation of a request that didn't consume any capacity.
+     * @param reserved units reserved by {@link #acquire()}
+     */
+    public synchronized void release(final double reserved) {
+        refill();
+        tokens += reserved;
+    }
+
+    /**
+     * Reduces the rate after the table reported its throughput was exceeded. The bucket is emptied so the next
+     * request waits for about a second at the new rate.
+     */
+    public synchronized void throttled() {
+        refill();
+        double previous = rate;
+        rate = Math.max(rate * backoffRatio, targetRate * MIN_RATE_RATIO);
+        tokens = Math.min(tokens, 0) - rate;
+        logger.info("Reducing read rate for table '{}' from {} to {} units per second, throughput exceeded",
+                    table, Math.round(previous), Math.round(rate));
+    }
+
+    public synchronized double getEstimate() {
+        return estimate;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    protected void refill() {
+        long now = nanoTime();
+        double elapsedSeconds = (double) (now - lastRefillNanos) / TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        if (rate < targetRate) {
+            rate = Math.min(rate + targetRate * recoveryRatio * elapsedSeconds, targetRate);
+        }
+        // allow bursts of up to one second
+        tokens = Math.min(tokens + rate * elapsedSeconds, rate);
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    protected void sleep(final long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts the data of Kinesis Data Stream records to maps. The payload is parsed directly from the record buffer,
+ * without copying it to an intermediate array or string, and the buffer position is not modified so the record can
+ * be read again if needed.
+ */
+public class RecordDataDecoder {
+
+    /**
+     * Supported payload formats
+     */
+    public enum Format {
+        JSON,
+        CBOR
+    }
+
+    /**
+     * Format of the record payloads
+     */
+    protected final Format format;
+
+    /**
+     * Reader bound to the parser factory for the format
+     */
+    protected final ObjectReader reader;
+
+    public RecordDataDecoder(final Format format) {
+        this.format = format;
+        ObjectMapper mapper = format == Format.CBOR ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+        this.reader = mapper.readerFor(Map.class);
+    }
+
+    /**
+     * Resolves a format from its configured name.
+     * @param name the name, case insensitive
+     * @return the format
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static Format getFormat(final String name) {
+        try {
+            return Format.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown payload format '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Parses a record payload, which must contain a single object.
+     * @param data the record data
+     * @return the fields of the object
+     * @throws IOException if the payload is not valid for the format
+     */
+    public Map<String, Object> decode(final ByteBuffer data) throws IOException {
+        if (data == null || !data.hasRemaining()) {
+            throw new IllegalArgumentException("Record has no data");
+        }
+        if (data.hasArray()) {
+            return reader.readValue(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        try (InputStream in = new ByteBufferBackedInputStream(data.duplicate())) {
+            return reader.readValue(in);
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+}
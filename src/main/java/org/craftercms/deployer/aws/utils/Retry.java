@@ -28,21 +28,43 @@ public abstract class Retry {
 
     public static final long DEFAULT_SLEEP = 5000;
 
-    public static void untilTrue(Supplier<Boolean> action) {
-        boolean successful = false;
-        while(!successful) {
-            successful = action.get();
-            if(!successful) {
-                sleep();
+    /**
+     * Performs an action until it is successful, waiting a fixed time between attempts.
+     * @return true if the action was successful, false if the thread was interrupted first
+     */
+    public static boolean untilTrue(Supplier<Boolean> action) {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (action.get()) {
+                return true;
             }
+            sleep();
         }
+        return false;
     }
 
+    /**
+     * Performs an action that depends on the search server until it is successful, waiting between attempts as
+     * indicated by the circuit breaker.
+     * @return true if the action was successful, false if the thread was interrupted first
+     */
+    public static boolean untilTrue(Supplier<Boolean> action, SearchCircuitBreaker circuitBreaker) {
+        for (int attempt = 0; !Thread.currentThread().isInterrupted(); attempt++) {
+            if (action.get()) {
+                return true;
+            }
+            circuitBreaker.awaitRetry(attempt);
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the given time, if interrupted the interrupt status of the thread is restored.
+     */
     public static void sleep(long ms) {
         try {
             Thread.sleep(ms);
-        } catch (Exception e) {
-
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
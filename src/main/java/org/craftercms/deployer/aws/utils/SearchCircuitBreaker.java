@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.craftercms.search.exception.SearchServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for the requests sent to the search server. After a number of consecutive failures the circuit
+ * opens and requests fail right away, once the backoff time has passed a single request is allowed as a probe: if it
+ * is successful the circuit closes, otherwise it opens again with a longer backoff. Backoff times grow exponentially
+ * and include a random jitter, so that processors don't retry in lockstep after an outage.
+ *
+ * <p>A single shared instance is used by all processors in the JVM, since they all send requests to the same server.
+ * </p>
+ */
+public class SearchCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchCircuitBreaker.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000L;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000L;
+
+    private static final SearchCircuitBreaker shared = new SearchCircuitBreaker(DEFAULT_FAILURE_THRESHOLD,
+        DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Number of consecutive failures that open the circuit
+     */
+    protected final int failureThreshold;
+
+    /**
+     * Backoff time in milliseconds after the first failure
+     */
+    protected final long baseBackoffMillis;
+
+    /**
+     * Maximum backoff time in milliseconds
+     */
+    protected final long maxBackoffMillis;
+
+    protected State state = State.CLOSED;
+    protected int consecutiveFailures;
+    protected int openings;
+    protected long openUntilMillis;
+    protected boolean probeInFlight;
+
+    public SearchCircuitBreaker(final int failureThreshold, final long baseBackoffMillis,
+                                final long maxBackoffMillis) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return the instance shared by all processors
+     */
+    public static SearchCircuitBreaker getShared() {
+        return shared;
+    }
+
+    /**
+     * Indicates if a request can be sent to the search server. Every allowed request must be followed by a call to
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     * @return true if the request can be sent
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+        case OPEN:
+            if (System.currentTimeMillis() < openUntilMillis) {
+                return false;
+            }
+            logger.info("Probing search server after {} consecutive failure(s)", consecutiveFailures);
+            state = State.HALF_OPEN;
+            probeInFlight = true;
+            return true;
+        case HALF_OPEN:
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+            return true;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Same as {@link #allowRequest()} but throws an exception if the request is not allowed.
+     * @throws SearchServerException if the circuit is open
+     */
+    public void checkRequest() {
+        if (!allowRequest()) {
+            throw new SearchServerException("Search server is unavailable, requests are suspended for " +
+                                            getRemainingBackoff() + "ms");
+        }
+    }
+
+    /**
+     * Sends a request to the search server if allowed, recording its outcome.
+     * @param request the request to send
+     * @throws SearchServerException if the circuit is open
+     */
+    public void execute(final Runnable request) {
+        checkRequest();
+        executeAllowed(request);
+    }
+
+    /**
+     * Sends a request already allowed by {@link #checkRequest()}, recording its outcome. If the request fails with an
+     * error the outcome is unknown, so only the probe is released.
+     * @param request the request to send
+     */
+    public void executeAllowed(final Runnable request) {
+        boolean recorded = false;
+        try {
+            request.run();
+            recorded = true;
+            recordSuccess();
+        } catch (RuntimeException e) {
+            recorded = true;
+            recordResult(e);
+            throw e;
+        } finally {
+            if (!recorded) {
+                releaseProbe();
+            }
+        }
+    }
+
+    /**
+     * Registers a request that reached the search server.
+     */
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Search server is available again, resuming requests");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openings = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * Registers a request that failed because the search server is unavailable.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            long backoff = getBackoffDelay(openings++);
+            openUntilMillis = System.currentTimeMillis() + backoff;
+            if (state != State.OPEN) {
+                logger.warn("Search server is unavailable, suspending requests for {}ms", backoff);
+            }
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * Allows a new probe without recording an outcome, for requests that were allowed but never reached the server.
+     */
+    public synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Records the outcome of a request.
+     * @param failure the exception thrown by the request, null if successful
+     */
+    public void recordResult(final Exception failure) {
+        if (failure instanceof SearchServerException) {
+            recordFailure();
+        } else {
+            // any other error means the server is able to respond
+            recordSuccess();
+        }
+    }
+
+    /**
+     * Waits before retrying an operation that failed, until the circuit allows a new request.
+     * @param attempt 0 based number of the attempt that failed
+     */
+    public void awaitRetry(final int attempt) {
+        try {
+            Thread.sleep(Math.max(getRemainingBackoff(), getBackoffDelay(attempt)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calculates an exponential backoff time with equal jitter: half of the delay is fixed and the other half is
+     * random.
+     * @param attempt 0 based attempt number
+     * @return time to wait in milliseconds
+     */
+    public long getBackoffDelay(final int attempt) {
+        long delay = baseBackoffMillis << Math.min(attempt, 30);
+        if (delay <= 0 || delay > maxBackoffMillis) {
+            delay = maxBackoffMillis;
+        }
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * @return time in milliseconds until a probe will be allowed, 0 if the circuit is not open
+     */
+    public synchronized long getRemainingBackoff() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(openUntilMillis - System.currentTimeMillis(), 0);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.service.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the uncommitted changes for a site and performs commits following a {@link CommitPolicy}.
+ * A single instance can be shared by all processors indexing the same site, since a commit covers the changes
+ * made by any of them.
+ */
+@SuppressWarnings("rawtypes")
+public class SearchCommitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchCommitter.class);
+
+    /**
+     * Instance of search service
+     */
+    protected final SearchService searchService;
+
+    /**
+     * Site to commit changes for
+     */
+    protected final String siteName;
+
+    /**
+     * Policy to decide when to commit
+     */
+    protected final CommitPolicy policy;
+
+    /**
+     * Scheduler for deferred commits, if null deferred commits are only checked when a batch is completed
+     */
+    protected final ScheduledExecutorService scheduler;
+
+    protected int pendingDocuments;
+    protected long oldestChangeMillis;
+    protected ScheduledFuture<?> deferredCommit;
+
+    /**
+     * Circuit breaker for the search server, shared by default
+     */
+    protected SearchCircuitBreaker circuitBreaker = SearchCircuitBreaker.getShared();
+
+    public SearchCommitter(final SearchService searchService, final String siteName, final CommitPolicy policy,
+                           final ScheduledExecutorService scheduler) {
+        this.searchService = searchService;
+        this.siteName = siteName;
+        this.policy = policy;
+        this.scheduler = scheduler;
+    }
+
+    public SearchCommitter(final SearchService searchService, final String siteName) {
+        this(searchService, siteName, CommitPolicy.immediate(), null);
+    }
+
+    public void setCircuitBreaker(final SearchCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Registers documents that have been sent to the index but not committed yet.
+     * @param count number of documents
+     */
+    public synchronized void changesIndexed(final int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (pendingDocuments == 0) {
+            oldestChangeMillis = System.currentTimeMillis();
+        }
+        pendingDocuments += count;
+        scheduleDeferredCommit();
+    }
+
+    /**
+     * Commits the pending changes if required by the policy.
+     * @return true if a commit was performed
+     * @throws SearchException if the commit fails
+     */
+    public synchronized boolean commitIfRequired() {
+        if (policy.isCommitRequired(pendingDocuments, oldestChangeMillis, System.currentTimeMillis()) ||
+            isDeferredCommitOverdue()) {
+            commit();
+            return true;
+        }
+        logger.debug("Deferring commit of {} document(s) for site '{}'", pendingDocuments, siteName);
+        return false;
+    }
+
+    /**
+     * Commits any pending changes, regardless of the policy.
+     * @throws SearchException if the commit fails
+     */
+    public synchronized void commitPending() {
+        if (pendingDocuments > 0) {
+            commit();
+        }
+    }
+
+    /**
+     * Performs the commit and resets the pending changes.
+     * @throws SearchException if the commit fails
+     */
+    public synchronized void commit() {
+        logger.debug("Committing {} document(s) for site '{}'", pendingDocuments, siteName);
+        circuitBreaker.execute(() -> searchService.commit(siteName));
+        pendingDocuments = 0;
+        oldestChangeMillis = 0;
+        if (deferredCommit != null) {
+            deferredCommit.cancel(false);
+            deferredCommit = null;
+        }
+    }
+
+    public synchronized boolean hasPendingChanges() {
+        return pendingDocuments > 0;
+    }
+
+    public synchronized int getPendingDocuments() {
+        return pendingDocuments;
+    }
+
+    /**
+     * Commits any pending changes and stops scheduled commits.
+     */
+    public synchronized void close() {
+        try {
+            commitPending();
+        } catch (SearchException e) {
+            logger.error("Unable to commit pending changes for site '{}'", siteName, e);
+        }
+        if (deferredCommit != null) {
+            deferredCommit.cancel(false);
+            deferredCommit = null;
+        }
+    }
+
+    protected boolean isDeferredCommitOverdue() {
+        return pendingDocuments > 0 && policy.getCommitWithinMillis() > 0 &&
+               System.currentTimeMillis() - oldestChangeMillis >= policy.getCommitWithinMillis();
+    }
+
+    protected void scheduleDeferredCommit() {
+        if (scheduler == null || policy.getCommitWithinMillis() <= 0 || deferredCommit != null) {
+            return;
+        }
+        deferredCommit = scheduler.schedule(this::runDeferredCommit, policy.getCommitWithinMillis(),
+                                            TimeUnit.MILLISECONDS);
+    }
+
+    protected synchronized void runDeferredCommit() {
+        deferredCommit = null;
+        try {
+            commitPending();
+        } catch (SearchException e) {
+            logger.warn("Search server is presently unavailable to commit data updates, will retry", e);
+            scheduleDeferredCommit();
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.exception.SearchServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent indexing requests sent to the search server, adapting the limit to the observed
+ * latency using additive increase/multiplicative decrease (AIMD):
+ * <ul>
+ *     <li>while requests are using all the available slots and latency stays close to its long term average, the
+ *     limit grows by one every time a full window of requests completes</li>
+ *     <li>when the recent latency grows over the long term average by more than the tolerance, or the server
+ *     reports it is unavailable, the limit is reduced by a fixed ratio</li>
+ * </ul>
+ * This finds the highest concurrency the server can sustain without its latency collapsing.
+ *
+ * <p>A single shared instance is used by all processors in the JVM, since they all send requests to the same server.
+ * </p>
+ */
+public class SearchConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchConcurrencyLimiter.class);
+
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 64;
+
+    /**
+     * Ratio between the recent and long term latency that is considered an overload
+     */
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Ratio applied to the limit on overload
+     */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+
+    private static final double RECENT_LATENCY_WEIGHT = 0.2;
+    private static final double LONG_TERM_LATENCY_WEIGHT = 0.02;
+
+    private static final SearchConcurrencyLimiter shared = new SearchConcurrencyLimiter(DEFAULT_INITIAL_LIMIT,
+        DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_LATENCY_TOLERANCE, DEFAULT_BACKOFF_RATIO);
+
+    protected final int minLimit;
+    protected final int maxLimit;
+    protected final double latencyTolerance;
+    protected final double backoffRatio;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition slotAvailable = lock.newCondition();
+
+    protected double limit;
+    protected int inFlight;
+    protected double recentLatency;
+    protected double longTermLatency;
+    protected long lastDecreaseNanos;
+
+    public SearchConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+                                    final double latencyTolerance, final double backoffRatio) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.lastDecreaseNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    }
+
+    /**
+     * @return the instance shared by all processors
+     */
+    public static SearchConcurrencyLimiter getShared() {
+        return shared;
+    }
+
+    /**
+     * Sends a request to the search server once a slot is available, measuring its latency.
+     * @param request the request to send
+     * @throws SearchException if interrupted while waiting for a slot
+     */
+    public void execute(final Runnable request) {
+        acquire();
+        long start = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            request.run();
+        } catch (SearchServerException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, overloaded);
+        }
+    }
+
+    /**
+     * Sends a request to the search server once a slot is available and the circuit breaker allows it. The slot is
+     * acquired first, so a request waiting for a slot never holds the probe of the circuit, and requests rejected by
+     * the circuit don't affect the limit.
+     * @param circuitBreaker the circuit breaker that records the outcome of the request
+     * @param request the request to send
+     * @throws SearchException if interrupted while waiting for a slot
+     * @throws SearchServerException if the circuit is open
+     */
+    public void execute(final SearchCircuitBreaker circuitBreaker, final Runnable request) {
+        acquire();
+        try {
+            circuitBreaker.checkRequest();
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        }
+        long start = System.nanoTime();
+        boolean overloaded = false;
+        try {
+            circuitBreaker.executeAllowed(request);
+        } catch (SearchServerException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, overloaded);
+        }
+    }
+
+    /**
+     * Waits until the number of requests in flight is below the limit.
+     * @throws SearchException if interrupted while waiting
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                slotAvailable.await();
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SearchException("Interrupted while waiting to send a request to the search server", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a completed request and adjusts the limit.
+     * @param latencyNanos time taken by the request
+     * @param overloaded true if the server reported it is unavailable
+     */
+    public void release(final long latencyNanos, final boolean overloaded) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+            if (overloaded) {
+                decrease("search server unavailable");
+            } else {
+                updateLatency(latencyNanos);
+                if (recentLatency > longTermLatency * latencyTolerance) {
+                    decrease("latency increased");
+                } else if (saturated && limit < maxLimit) {
+                    // one slot per window of requests
+                    limit = Math.min(limit + 1 / limit, maxLimit);
+                }
+            }
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a slot acquired for a request that was never sent, without adjusting the limit.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void updateLatency(final long latencyNanos) {
+        if (longTermLatency == 0) {
+            recentLatency = latencyNanos;
+            longTermLatency = latencyNanos;
+        } else {
+            recentLatency += (latencyNanos - recentLatency) * RECENT_LATENCY_WEIGHT;
+            longTermLatency += (latencyNanos - longTermLatency) * LONG_TERM_LATENCY_WEIGHT;
+        }
+    }
+
+    protected void decrease(final String reason) {
+        // requests sent before the last decrease will report the same condition, ignore them
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < Math.max(recentLatency, TimeUnit.MILLISECONDS.toNanos(1))) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(limit * backoffRatio, minLimit);
+        if ((int) previous != (int) limit) {
+            logger.info("Reducing concurrent search requests from {} to {}, {}", (int) previous, (int) limit, reason);
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
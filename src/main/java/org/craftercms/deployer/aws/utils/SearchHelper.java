@@ -17,13 +17,16 @@
 
 package org.craftercms.deployer.aws.utils;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.craftercms.search.service.SearchService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
 import com.amazonaws.services.kinesis.model.Record;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
@@ -35,6 +38,7 @@ import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class SearchHelper {
 	private static final String ID_FIELD = "id";
+	private static final String TABLE_ARN_PREFIX = ":table/";
 
     private static final Logger logger = LoggerFactory.getLogger(SearchHelper.class);
 
@@ -43,25 +47,48 @@ public class SearchHelper {
      */
     protected XmlMapper xmlMapper;
 
+    /**
+     * Encoder used to generate documents.
+     */
+    protected XmlDocumentEncoder xmlEncoder;
+
+    /**
+     * Converter used for DynamoDB items.
+     */
+    protected AttributeValueConverter attributeConverter;
+
+    /**
+     * Mappings for DynamoDB items, indexed by table name.
+     */
+    protected Map<String, DocumentMapping> documentMappings = Collections.emptyMap();
+
+    /**
+     * Decoder used for the data of Kinesis Data Stream records.
+     */
+    protected RecordDataDecoder kinesisDecoder;
+
     public SearchHelper() {
         xmlMapper = new XmlMapper();
+        xmlEncoder = new XmlDocumentEncoder(xmlMapper);
+        attributeConverter = new AttributeValueConverter();
+        kinesisDecoder = new RecordDataDecoder(RecordDataDecoder.Format.JSON);
+    }
+
+    public void setDocumentMappings(Map<String, DocumentMapping> documentMappings) {
+        this.documentMappings = documentMappings;
+    }
+
+    public void setKinesisPayloadFormat(RecordDataDecoder.Format format) {
+        kinesisDecoder = new RecordDataDecoder(format);
     }
 
 
     public void delete(SearchService searchService, String site,
                        com.amazonaws.services.dynamodbv2.model.Record record) {
-    	Map oldImage = record.getDynamodb().getOldImage();
-		if(oldImage == null) {
-        	logger.error("Unable to delete doc without old image from site '{}'!", site);
-        	return;
-		}
-		String id = ItemUtils.toItem(oldImage).getString(ID_FIELD);
-		if(StringUtils.isEmpty(id)) {
-        	logger.error("Unable to delete doc from site '{}' with no field '{}' defined!", site, ID_FIELD);
-        	return;
-		}
-        logger.debug("Deleting doc with id '{}'", id);
-        searchService.delete(site, site, id);
+        IndexingOperation operation = createDelete(site, record);
+        if(operation != null) {
+            execute(searchService, site, operation);
+        }
     }
 
     /**
@@ -72,25 +99,159 @@ public class SearchHelper {
      * @throws Exception if the update fails
      */
     public void update(SearchService searchService, String siteName, Map map) throws Exception {
+        IndexingOperation operation = createUpdate(siteName, map);
+        if(operation != null) {
+            execute(searchService, siteName, operation);
+        }
+    }
+
+    /**
+     * Prepares the deletion of the document for a given DynamoDB Record.
+     * @param site the site name
+     * @param record the REMOVE record
+     * @return the operation, or null if the document id can't be resolved
+     */
+    public IndexingOperation createDelete(String site, com.amazonaws.services.dynamodbv2.model.Record record) {
+        return createDelete(site, null, record);
+    }
+
+    /**
+     * Prepares the deletion of the document for a given DynamoDB Record. The id is taken from the old image if the
+     * stream includes it, otherwise from the keys of the record using the mapping defined for the table if any.
+     * @param site the site name
+     * @param table name of the table the record comes from, can be null
+     * @param record the REMOVE record
+     * @return the operation, or null if the document id can't be resolved
+     */
+    public IndexingOperation createDelete(String site, String table,
+                                          com.amazonaws.services.dynamodbv2.model.Record record) {
+		String id = getId(table, record);
+		if(StringUtils.isEmpty(id)) {
+        	logger.error("Unable to delete doc from site '{}' with no field '{}' defined!", site, ID_FIELD);
+        	return null;
+		}
+        return IndexingOperation.delete(id);
+    }
+
+    /**
+     * Prepares the update of a given document.
+     * @param siteName the site name
+     * @param map document fields as a map
+     * @return the operation, or null if the document has no id
+     * @throws Exception if the document can't be serialized
+     */
+    public IndexingOperation createUpdate(String siteName, Map map) throws Exception {
         // Id need to be removed because searchService will generate it.
-        String id = (String) map.remove(ID_FIELD);
+        // JSON and CBOR payloads can hold a numeric id
+        Object value = map.remove(ID_FIELD);
+        String id = value != null ? String.valueOf(value) : null;
         if(StringUtils.isEmpty(id)){
         	logger.error("Unable to index doc for site '{}' with no field '{}' defined!", siteName, ID_FIELD);
-        	return;
+        	return null;
+        }
+        String xml = xmlEncoder.encode(map);
+        return IndexingOperation.update(id, xml);
+    }
+
+    /**
+     * Sends a single operation to the search index.
+     * @param searchService search service instance
+     * @param siteName the site name
+     * @param operation the operation to perform
+     */
+    public void execute(SearchService searchService, String siteName, IndexingOperation operation) {
+        switch (operation.getType()) {
+            case UPDATE:
+                logger.debug("Indexing doc with id '{}'", operation.getId());
+                searchService.update(siteName, siteName, operation.getId(), operation.getXml(), true);
+                break;
+            case DELETE:
+                logger.debug("Deleting doc with id '{}'", operation.getId());
+                searchService.delete(siteName, siteName, operation.getId());
+                break;
         }
-        logger.debug("Indexing doc with id '{}'", id);
-        String xml = xmlMapper.writeValueAsString(map);
-        searchService.update(siteName, siteName, id, xml, true);
     }
 
     /**
      * Transforms a Kinesis Data Stream record to a map.
      * @param record record to transform
      * @return values as a map
+     * @throws IOException if the record data is not valid for the configured format
+     */
+    public Map getDocFromKinesis(Record record) throws IOException {
+        return kinesisDecoder.decode(record.getData());
+    }
+
+    /**
+     * Finds the id of the document affected by a DynamoDB Record, without converting the whole image.
+     * @param record record to inspect
+     * @return the document id, or null if it can't be resolved
+     */
+    public String getId(com.amazonaws.services.dynamodbv2.model.Record record) {
+        return getId(null, record);
+    }
+
+    /**
+     * Finds the id of the document affected by a DynamoDB Record, without converting the whole image. If the record
+     * has no image, as happens for deletes in streams with the {@code NEW_IMAGE} view, the id is taken from its keys.
+     * Both use the id attribute of the mapping defined for the table if any.
+     * @param table name of the table the record comes from, can be null
+     * @param record record to inspect
+     * @return the document id, or null if it can't be resolved
+     */
+    public String getId(String table, com.amazonaws.services.dynamodbv2.model.Record record) {
+        StreamRecord streamRecord = record.getDynamodb();
+        if(streamRecord == null) {
+            return null;
+        }
+        Map<String, AttributeValue> image = "REMOVE".equals(record.getEventName()) ?
+            streamRecord.getOldImage() : streamRecord.getNewImage();
+        if(image != null) {
+            return getValue(image, getIdKey(table));
+        }
+        return getIdFromKeys(table, streamRecord.getKeys());
+    }
+
+    /**
+     * Finds the document id in the keys of a DynamoDB Record.
+     * @param table name of the table the record comes from, can be null
+     * @param keys key attributes of the item
+     * @return the document id, or null if it is not defined
+     */
+    public String getIdFromKeys(String table, Map<String, AttributeValue> keys) {
+        if(keys == null) {
+            return null;
+        }
+        return getValue(keys, getIdKey(table));
+    }
+
+    /**
+     * @param table name of the table, can be null
+     * @return the attribute holding the document id for the table
      */
-    public Map getDocFromKinesis(Record record) {
-        //TODO: Get values from raw data, not needed for now...
-        throw new UnsupportedOperationException();
+    protected String getIdKey(String table) {
+        DocumentMapping mapping = table != null ? documentMappings.get(table) : null;
+        return mapping != null ? mapping.getIdKey() : ID_FIELD;
+    }
+
+    /**
+     * Finds the id field in a DynamoDB image.
+     * @param image item attributes
+     * @return the document id, or null if it is not defined
+     */
+    public String getId(Map<String, AttributeValue> image) {
+        if(image == null) {
+            return null;
+        }
+        return getValue(image, ID_FIELD);
+    }
+
+    protected String getValue(Map<String, AttributeValue> image, String name) {
+        AttributeValue value = image.get(name);
+        if(value == null) {
+            return null;
+        }
+        return value.getS() != null ? value.getS() : value.getN();
     }
 
     /**
@@ -99,7 +260,52 @@ public class SearchHelper {
      * @return values as a map
      */
     public Map<String, Object> getDocFromDynamo(com.amazonaws.services.dynamodbv2.model.Record record) {
-        return ItemUtils.toItem(record.getDynamodb().getNewImage()).asMap();
+        return getDocFromDynamo(record.getDynamodb().getNewImage());
+    }
+
+    /**
+     * Transforms a DynamoDB Record to a map, using the mapping defined for the table if any.
+     * @param table name of the table the record comes from, can be null
+     * @param record record to transform
+     * @return values as a map
+     */
+    public Map<String, Object> getDocFromDynamo(String table,
+                                                com.amazonaws.services.dynamodbv2.model.Record record) {
+        return getDocFromDynamo(table, record.getDynamodb().getNewImage());
+    }
+
+    /**
+     * Transforms a DynamoDB item to a map.
+     * @param image item attributes
+     * @return values as a map
+     */
+    public Map<String, Object> getDocFromDynamo(Map<String, AttributeValue> image) {
+        return attributeConverter.toDocument(image);
+    }
+
+    /**
+     * Transforms a DynamoDB item to a map, using the mapping defined for the table if any.
+     * @param table name of the table
+     * @param image item attributes
+     * @return values as a map
+     */
+    public Map<String, Object> getDocFromDynamo(String table, Map<String, AttributeValue> image) {
+        return attributeConverter.toDocument(image, table != null ? documentMappings.get(table) : null);
+    }
+
+    /**
+     * Extracts the table name from the ARN of a DynamoDB table or stream.
+     * @param arn the ARN, for example {@code arn:aws:dynamodb:region:account:table/name/stream/label}
+     * @return the table name, or null if it can't be resolved
+     */
+    public static String getTableName(String arn) {
+        int start = arn != null ? arn.indexOf(TABLE_ARN_PREFIX) : -1;
+        if(start < 0) {
+            return null;
+        }
+        start += TABLE_ARN_PREFIX.length();
+        int end = arn.indexOf('/', start);
+        return end < 0 ? arn.substring(start) : arn.substring(start, end);
     }
 
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.exception.SearchServerException;
+import org.craftercms.search.service.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the operations stored in an {@link IndexingSpool} to the search index in order, waiting on the
+ * {@link SearchCircuitBreaker} while the server is unavailable. Requests take a slot of the
+ * {@link SearchConcurrencyLimiter} like any other indexing request. Each segment is committed and deleted once all
+ * its operations have been sent.
+ */
+@SuppressWarnings("rawtypes")
+public class SpoolReplayer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolReplayer.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 1000L;
+
+    protected final IndexingSpool spool;
+    protected final SearchService searchService;
+    protected final SearchHelper searchHelper;
+    protected final String siteName;
+    protected final SearchCommitter searchCommitter;
+    protected final SearchCircuitBreaker circuitBreaker;
+
+    protected SearchConcurrencyLimiter concurrencyLimiter = SearchConcurrencyLimiter.getShared();
+
+    protected volatile boolean running;
+    protected Thread thread;
+
+    public SpoolReplayer(final IndexingSpool spool, final SearchService searchService, final SearchHelper searchHelper,
+                         final String siteName, final SearchCommitter searchCommitter,
+                         final SearchCircuitBreaker circuitBreaker) {
+        this.spool = spool;
+        this.searchService = searchService;
+        this.searchHelper = searchHelper;
+        this.siteName = siteName;
+        this.searchCommitter = searchCommitter;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public void setConcurrencyLimiter(final SearchConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public synchronized void start() {
+        running = true;
+        thread = new Thread(this, "spool-replayer-" + siteName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Path segment = spool.nextSegment(POLL_INTERVAL_MILLIS);
+                if (segment != null && replay(segment)) {
+                    spool.remove(segment);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                logger.error("Error replaying spooled operations for site '{}'", siteName, e);
+                circuitBreaker.awaitRetry(0);
+            }
+        }
+    }
+
+    /**
+     * Sends all operations of a segment and commits them.
+     * @param segment the segment to replay
+     * @return true if the segment was completed, false if the replayer was stopped
+     * @throws IOException if the segment can't be read
+     */
+    protected boolean replay(final Path segment) throws IOException {
+        logger.info("Replaying spooled operations from {}", segment);
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                IndexingOperation operation = spool.parse(line);
+                if (operation == null) {
+                    continue;
+                }
+                if (!send(operation)) {
+                    return false;
+                }
+                count++;
+            }
+        }
+        searchCommitter.changesIndexed(count);
+        for (int attempt = 0; running; attempt++) {
+            try {
+                searchCommitter.commitPending();
+                logger.info("Replayed {} spooled operation(s) from {}", count, segment);
+                return true;
+            } catch (SearchException e) {
+                logger.warn("Search server is presently unavailable to commit spooled operations", e);
+                circuitBreaker.awaitRetry(attempt);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a single operation, retrying while the search server is unavailable.
+     * @return true if the operation was sent or skipped, false if the replayer was stopped
+     */
+    protected boolean send(final IndexingOperation operation) {
+        for (int attempt = 0; running; attempt++) {
+            try {
+                concurrencyLimiter.execute(circuitBreaker,
+                    () -> searchHelper.execute(searchService, siteName, operation));
+                return true;
+            } catch (SearchServerException e) {
+                logger.debug("Search server is unavailable, will retry spooled operation {}", operation);
+                circuitBreaker.awaitRetry(attempt);
+            } catch (SearchException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // stopped while waiting for a slot, the operation will be sent on the next execution
+                    return false;
+                }
+                logger.error("Unable to replay spooled operation {}, it will be skipped", operation, e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
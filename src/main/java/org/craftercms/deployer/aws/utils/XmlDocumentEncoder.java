@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2007-2019 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.aws.utils;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serializes documents to the XML expected by the search service, using an {@link ObjectWriter} built once from the
+ * mapper configuration instead of resolving it for every document.
+ */
+public class XmlDocumentEncoder {
+
+    /**
+     * Writer shared by all threads, built once from the mapper configuration
+     */
+    protected final ObjectWriter writer;
+
+    public XmlDocumentEncoder(final XmlMapper xmlMapper) {
+        this.writer = xmlMapper.writer();
+    }
+
+    /**
+     * Serializes a document.
+     * @param document the document fields
+     * @return the XML for the document
+     * @throws IOException if the document can't be serialized
+     */
+    public String encode(final Map document) throws IOException {
+        return writer.writeValueAsString(document);
+    }
+
+}
@@ -1,10 +1,12 @@
 package org.craftercms.deployer.aws.kinesis;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -19,11 +21,13 @@ import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
 import com.amazonaws.services.kinesis.model.Record;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -106,6 +110,127 @@ public class AbstractKinesisRecordProcessorTest {
 		verify(target).handleProcessRecordsFailure(any(ProcessRecordsInput.class), anyInt());;
 	}
 
+	@Test
+	public void testProcessingRetriesOnlyRecordsNotAcknowledged() throws Exception {
+		recreateTarget(1, 0);
+
+		Record first = mock(Record.class), second = mock(Record.class);
+		List<List<Record>> attempts = new ArrayList<>();
+		doAnswer(i -> null).when(target).sleep();
+		doAnswer(i -> {
+			List<Record> records = i.getArgument(0);
+			attempts.add(new ArrayList<>(records));
+			if (attempts.size() == 1) {
+				target.acknowledge(first);
+				return false;
+			}
+			return true;
+		}).when(target).tryProcessRecords(anyList());
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second))
+				.withCheckpointer(mock(IRecordProcessorCheckpointer.class)));
+
+		assertThat(attempts).containsExactly(Arrays.asList(first, second), Arrays.asList(second));
+		verify(target).handleProcessRecordsSuccess(any(ProcessRecordsInput.class));
+	}
+
+	@Test
+	public void testFailingRecordsAreIsolated() throws Exception {
+		Record first = mock(Record.class), second = mock(Record.class), third = mock(Record.class),
+			fourth = mock(Record.class);
+		doReturn(true).when(target).shouldIsolateFailures();
+		doAnswer(i -> !((List<Record>) i.getArgument(0)).contains(third)).when(target).tryProcessRecords(anyList());
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second, third, fourth))
+				.withCheckpointer(mock(IRecordProcessorCheckpointer.class)));
+
+		verify(target).handlePoisonRecord(third);
+		verify(target, never()).handlePoisonRecord(first);
+		verify(target, never()).handlePoisonRecord(fourth);
+		verify(target).handleProcessRecordsSuccess(any(ProcessRecordsInput.class));
+	}
+
+	@Test
+	public void testCheckpointsAtLastProcessedRecord() throws Exception {
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+		Record first = mock(Record.class), second = mock(Record.class);
+		when(target.tryProcessRecords(anyList())).thenReturn(true);
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second))
+				.withCheckpointer(checkpointer));
+
+		verify(checkpointer).checkpoint(second);
+		verify(checkpointer, never()).checkpoint();
+	}
+
+	@Test
+	public void testCheckpointsPartialProgressWhenBatchFails() throws Exception {
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+		Record first = mock(Record.class), second = mock(Record.class), third = mock(Record.class);
+		doAnswer(i -> {
+			target.acknowledge(first);
+			target.acknowledge(third);
+			return false;
+		}).when(target).tryProcessRecords(anyList());
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second, third))
+				.withCheckpointer(checkpointer));
+
+		verify(checkpointer).checkpoint(first);
+		verify(checkpointer, never()).checkpoint(third);
+	}
+
+	@Test
+	public void testCheckpointsProgressWhenShutdownIsRequested() throws Exception {
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+		Record first = mock(Record.class), second = mock(Record.class);
+		when(target.tryProcessRecords(anyList())).thenReturn(true);
+		target.setCheckpointPolicy((progress, now) -> false);
+		target.initialize(new InitializationInput().withShardId("shard"));
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second))
+				.withCheckpointer(checkpointer));
+		verify(checkpointer, never()).checkpoint(any(Record.class));
+
+		target.shutdownRequested(checkpointer);
+		target.shutdown(new ShutdownInput()
+				.withCheckpointer(checkpointer)
+				.withShutdownReason(ShutdownReason.REQUESTED));
+
+		verify(checkpointer, times(1)).checkpoint(second);
+	}
+
+	@Test
+	public void testProgressIsKeptWhenCheckpointIsSkipped() throws Exception {
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+		Record first = mock(Record.class), second = mock(Record.class), third = mock(Record.class);
+		List<Long> pending = new ArrayList<>();
+		when(target.tryProcessRecords(anyList())).thenReturn(true);
+		when(target.beforeCheckpoint()).thenReturn(false, true);
+		target.setCheckpointPolicy((progress, now) -> pending.add(progress.getRecords()));
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(first, second))
+				.withCheckpointer(checkpointer));
+		verify(checkpointer, never()).checkpoint(any(Record.class));
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(third))
+				.withCheckpointer(checkpointer));
+		verify(checkpointer).checkpoint(third);
+
+		target.processRecords(new ProcessRecordsInput()
+				.withRecords(Arrays.asList(mock(Record.class)))
+				.withCheckpointer(checkpointer));
+
+		assertThat(pending).containsExactly(2L, 3L, 1L);
+	}
+
 	@Test
 	public void testCheckpointerHandlesShutdownState() throws Exception {
 		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
@@ -0,0 +1,58 @@
+package org.craftercms.deployer.aws.kinesis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointPolicyTest {
+	private CheckpointProgress progress;
+
+	@Before
+	public void setup() {
+		progress = new CheckpointProgress();
+		progress.reset(1000);
+	}
+
+	@Test
+	public void testTimePolicyCheckpointsAfterInterval() throws Exception {
+		CheckpointPolicy policy = new TimeCheckpointPolicy(500);
+
+		assertThat(policy.isCheckpointRequired(progress, 1400)).isFalse();
+		assertThat(policy.isCheckpointRequired(progress, 1600)).isTrue();
+	}
+
+	@Test
+	public void testRecordCountPolicyCheckpointsAfterMaxRecords() throws Exception {
+		CheckpointPolicy policy = new RecordCountCheckpointPolicy(10);
+
+		progress.add(9, 0, null);
+		assertThat(policy.isCheckpointRequired(progress, 1000)).isFalse();
+		progress.add(1, 0, null);
+		assertThat(policy.isCheckpointRequired(progress, 1000)).isTrue();
+		progress.reset(1000);
+		assertThat(policy.isCheckpointRequired(progress, 1000)).isFalse();
+	}
+
+	@Test
+	public void testByteCountPolicyCheckpointsAfterMaxBytes() throws Exception {
+		CheckpointPolicy policy = new ByteCountCheckpointPolicy(1024);
+
+		progress.add(1, 1000, null);
+		assertThat(policy.isCheckpointRequired(progress, 1000)).isFalse();
+		progress.add(1, 100, null);
+		assertThat(policy.isCheckpointRequired(progress, 1000)).isTrue();
+	}
+
+	@Test
+	public void testLagAwarePolicyCheckpointsMoreOftenWhileBehind() throws Exception {
+		CheckpointPolicy policy = new LagAwareCheckpointPolicy(5000, 500, 60000);
+
+		progress.add(1, 0, 1000L);
+		assertThat(policy.isCheckpointRequired(progress, 2000)).isFalse();
+		progress.add(1, 0, 120000L);
+		assertThat(policy.isCheckpointRequired(progress, 2000)).isTrue();
+		progress.add(1, 0, null);
+		assertThat(policy.isCheckpointRequired(progress, 2000)).isFalse();
+	}
+}
@@ -4,29 +4,55 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
 import com.amazonaws.services.kinesis.model.Record;
 
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.craftercms.deployer.aws.utils.IndexingOperation;
+import org.craftercms.deployer.aws.utils.IndexingSpool;
+import org.craftercms.deployer.aws.utils.SearchCircuitBreaker;
+import org.craftercms.deployer.aws.utils.SearchCommitter;
 import org.craftercms.deployer.aws.utils.SearchHelper;
+import org.craftercms.deployer.aws.utils.SpoolReplayer;
 import org.craftercms.search.exception.SearchException;
 import org.craftercms.search.exception.SearchServerException;
 import org.craftercms.search.service.SearchService;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class KinesisIndexingProcessorTest {
 	private KinesisIndexingProcessor target;
 	
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
 	private SearchService mockSearchService;
     private SearchHelper mockSearchHelper;
 
@@ -39,6 +65,13 @@ public class KinesisIndexingProcessorTest {
 	
 	public void createTarget(boolean isDynamo, boolean continueOnError) {
 		target = new KinesisIndexingProcessor("", 0, 0, isDynamo, continueOnError, mockSearchService, mockSearchHelper);
+		target.setCircuitBreaker(new SearchCircuitBreaker(3, 1000, 1000));
+	}
+
+	private IndexingOperation mockUpdate(Map doc) throws Exception {
+		IndexingOperation operation = IndexingOperation.update(String.valueOf(System.identityHashCode(doc)), "<doc/>");
+		when(mockSearchHelper.createUpdate(anyString(), eq(doc))).thenReturn(operation);
+		return operation;
 	}
 
 	@Test
@@ -47,9 +80,10 @@ public class KinesisIndexingProcessorTest {
 
 		Map record = mock(Map.class);
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(record);
+		IndexingOperation recordOperation = mockUpdate(record);
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isTrue();
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(recordOperation));
 	}
 
 	@Test
@@ -60,11 +94,12 @@ public class KinesisIndexingProcessorTest {
 		Map doc = mock(Map.class);
 		com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = mock(com.amazonaws.services.dynamodbv2.model.Record.class);
 		when(record.getInternalObject()).thenReturn(dynamoRecord);
-		when(mockSearchHelper.getDocFromDynamo(dynamoRecord)).thenReturn(doc);
+		when(mockSearchHelper.getDocFromDynamo(null, dynamoRecord)).thenReturn(doc);
+		IndexingOperation docOperation = mockUpdate(doc);
 		when(dynamoRecord.getEventName()).thenReturn("MODIFY");
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(record))).isTrue();
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(doc));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(docOperation));
 	}
 
 	@Test
@@ -75,11 +110,12 @@ public class KinesisIndexingProcessorTest {
 		Map doc = mock(Map.class);
 		com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = mock(com.amazonaws.services.dynamodbv2.model.Record.class);
 		when(record.getInternalObject()).thenReturn(dynamoRecord);
-		when(mockSearchHelper.getDocFromDynamo(dynamoRecord)).thenReturn(doc);
+		when(mockSearchHelper.getDocFromDynamo(null, dynamoRecord)).thenReturn(doc);
+		IndexingOperation docOperation = mockUpdate(doc);
 		when(dynamoRecord.getEventName()).thenReturn("INSERT");
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(record))).isTrue();
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(doc));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(docOperation));
 	}
 
 	@Test
@@ -90,9 +126,11 @@ public class KinesisIndexingProcessorTest {
 		com.amazonaws.services.dynamodbv2.model.Record dynamoRecord = mock(com.amazonaws.services.dynamodbv2.model.Record.class);
 		when(record.getInternalObject()).thenReturn(dynamoRecord);
 		when(dynamoRecord.getEventName()).thenReturn("REMOVE");
+		IndexingOperation deleteOperation = IndexingOperation.delete("1");
+		when(mockSearchHelper.createDelete(anyString(), isNull(), eq(dynamoRecord))).thenReturn(deleteOperation);
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(record))).isTrue();
-		verify(mockSearchHelper).delete(eq(mockSearchService), anyString(), eq(dynamoRecord));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(deleteOperation));
 	}
 
 	@Test
@@ -103,10 +141,42 @@ public class KinesisIndexingProcessorTest {
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class)))
 			.thenReturn(record1)
 			.thenReturn(record2);
+		IndexingOperation record1Operation = mockUpdate(record1), record2Operation = mockUpdate(record2);
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class), mock(Record.class)))).isTrue();
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record1));
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record2));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(record1Operation));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(record2Operation));
+	}
+
+	@Test
+	public void testProcessingRecordsInParallelKeepsOrderForSameKey() throws Exception {
+		createTarget(false, false);
+		ExecutorService executorService = Executors.newFixedThreadPool(2);
+		target.setIndexingThreads(2);
+		target.setExecutorService(executorService);
+
+		Record record1 = mock(Record.class), record2 = mock(Record.class), record3 = mock(Record.class);
+		when(record1.getPartitionKey()).thenReturn("a");
+		when(record2.getPartitionKey()).thenReturn("b");
+		when(record3.getPartitionKey()).thenReturn("a");
+		Map doc1 = mock(Map.class), doc2 = mock(Map.class), doc3 = mock(Map.class);
+		when(mockSearchHelper.getDocFromKinesis(record1)).thenReturn(doc1);
+		when(mockSearchHelper.getDocFromKinesis(record2)).thenReturn(doc2);
+		when(mockSearchHelper.getDocFromKinesis(record3)).thenReturn(doc3);
+		IndexingOperation doc1Operation = mockUpdate(doc1), doc2Operation = mockUpdate(doc2),
+			doc3Operation = mockUpdate(doc3);
+
+		try {
+			assertThat(target.tryProcessRecords(Arrays.asList(record1, record2, record3))).isTrue();
+		} finally {
+			executorService.shutdown();
+		}
+
+		InOrder inOrder = inOrder(mockSearchHelper);
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(doc1Operation));
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(doc3Operation));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(doc2Operation));
+		verify(mockSearchService).commit(anyString());
 	}
 
 	@Test
@@ -115,7 +185,8 @@ public class KinesisIndexingProcessorTest {
 
 		Map record = mock(Map.class);
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(record);
-		doThrow(SearchServerException.class).when(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record));
+		IndexingOperation recordOperation = mockUpdate(record);
+		doThrow(SearchServerException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(recordOperation));
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isFalse();
 	}
@@ -126,7 +197,8 @@ public class KinesisIndexingProcessorTest {
 
 		Map record = mock(Map.class);
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(record);
-		doThrow(SearchException.class).when(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record));
+		IndexingOperation recordOperation = mockUpdate(record);
+		doThrow(SearchException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(recordOperation));
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isTrue();
 	}
@@ -137,7 +209,8 @@ public class KinesisIndexingProcessorTest {
 
 		Map record = mock(Map.class);
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(record);
-		doThrow(SearchException.class).when(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record));
+		IndexingOperation recordOperation = mockUpdate(record);
+		doThrow(SearchException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(recordOperation));
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isFalse();
 	}
@@ -148,17 +221,20 @@ public class KinesisIndexingProcessorTest {
 
 		Map record1 = mock(Map.class), record2 = mock(Map.class);
 		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(record1).thenReturn(record2);
-		doThrow(SearchException.class).when(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record1));
+		IndexingOperation record1Operation = mockUpdate(record1), record2Operation = mockUpdate(record2);
+		doThrow(SearchException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(record1Operation));
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class), mock(Record.class)))).isTrue();
-		verify(mockSearchHelper).update(eq(mockSearchService), anyString(), eq(record2));
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(record2Operation));
 	}
 
 	@Test
 	public void testProcessingRecordsCommitsUpdate() throws Exception {
 		createTarget(false, false);
 
-		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(new HashMap<>());
+		Map doc = new HashMap<>();
+		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(doc);
+		mockUpdate(doc);
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isTrue();
 		verify(mockSearchService).commit(anyString());
@@ -168,9 +244,143 @@ public class KinesisIndexingProcessorTest {
 	public void testProcessingRecordsFailsOnCommitFailure() throws Exception {
 		createTarget(false, false);
 
-		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(new HashMap<>());
+		Map doc = new HashMap<>();
+		when(mockSearchHelper.getDocFromKinesis(any(Record.class))).thenReturn(doc);
+		mockUpdate(doc);
 		doThrow(SearchException.class).when(mockSearchService).commit(anyString());
 		
 		assertThat(target.tryProcessRecords(Arrays.asList(mock(Record.class)))).isFalse();
 	}
+
+	@Test
+	public void testFailingRecordIsQuarantinedAndOthersAreIndexed() throws Exception {
+		createTarget(false, false);
+		target.setIsolateFailures(true);
+		target.setRecordQuarantine(new RecordQuarantine(tempFolder.getRoot().toPath(), "site"));
+
+		Record bad = mock(Record.class), good = mock(Record.class);
+		Map doc = new HashMap<>();
+		when(bad.getSequenceNumber()).thenReturn("1");
+		when(mockSearchHelper.getDocFromKinesis(bad)).thenThrow(new IllegalArgumentException("invalid"));
+		when(mockSearchHelper.getDocFromKinesis(good)).thenReturn(doc);
+		IndexingOperation goodOperation = mockUpdate(doc);
+
+		target.processRecords(new ProcessRecordsInput().withRecords(Arrays.asList(bad, good))
+				.withCheckpointer(mock(IRecordProcessorCheckpointer.class)));
+
+		verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(goodOperation));
+		List<String> lines = Files.readAllLines(tempFolder.getRoot().toPath().resolve("site-quarantine.jsonl"));
+		assertThat(lines).hasSize(1);
+		assertThat(lines.get(0)).contains("invalid");
+	}
+
+	@Test
+	public void testPipelineIndexesQueuedBatchesBeforeShutdown() throws Exception {
+		createTarget(false, false);
+		target.setPipelineEnabled(true);
+		target.initialize(new InitializationInput().withShardId("shard"));
+
+		Map doc1 = new HashMap<>(), doc2 = new HashMap<>();
+		doc1.put("id", "1");
+		doc2.put("id", "2");
+		Record record1 = mock(Record.class), record2 = mock(Record.class);
+		when(mockSearchHelper.getDocFromKinesis(record1)).thenReturn(doc1);
+		when(mockSearchHelper.getDocFromKinesis(record2)).thenReturn(doc2);
+		IndexingOperation operation1 = mockUpdate(doc1), operation2 = mockUpdate(doc2);
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+
+		target.processRecords(new ProcessRecordsInput().withRecords(Arrays.asList(record1))
+				.withCheckpointer(checkpointer));
+		target.processRecords(new ProcessRecordsInput().withRecords(Arrays.asList(record2))
+				.withCheckpointer(checkpointer));
+		target.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.REQUESTED)
+				.withCheckpointer(checkpointer));
+
+		InOrder inOrder = inOrder(mockSearchHelper);
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation1));
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation2));
+	}
+
+	@Test
+	public void testRecordsAreCheckpointedWhileSearchIsDownAndReplayedInOrder() throws Exception {
+		createTarget(false, false);
+		IndexingSpool spool = new IndexingSpool(tempFolder.getRoot().toPath(), 1024 * 1024, 1024 * 1024);
+		spool.setMinSegmentAgeMillis(0);
+		spool.open();
+		target.setSpool(spool);
+		target.setCheckpointPolicy((progress, now) -> true);
+
+		Map doc1 = new HashMap<>(), doc2 = new HashMap<>();
+		Record record1 = mock(Record.class), record2 = mock(Record.class);
+		when(mockSearchHelper.getDocFromKinesis(record1)).thenReturn(doc1);
+		when(mockSearchHelper.getDocFromKinesis(record2)).thenReturn(doc2);
+		IndexingOperation operation1 = IndexingOperation.update("1", "<doc><version>1</version></doc>");
+		IndexingOperation operation2 = IndexingOperation.update("1", "<doc><version>2</version></doc>");
+		when(mockSearchHelper.createUpdate(anyString(), eq(doc1))).thenReturn(operation1);
+		when(mockSearchHelper.createUpdate(anyString(), eq(doc2))).thenReturn(operation2);
+		// only the first change fails, the second one reaches the index before the first is replayed
+		doThrow(SearchServerException.class).when(mockSearchHelper)
+			.execute(eq(mockSearchService), anyString(), eq(operation1));
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+
+		target.processRecords(new ProcessRecordsInput().withRecords(Arrays.asList(record1, record2))
+				.withCheckpointer(checkpointer));
+
+		verify(checkpointer).checkpoint(record2);
+		assertThat(spool.isActive()).isTrue();
+
+		doNothing().when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation1));
+		SpoolReplayer replayer = new SpoolReplayer(spool, mockSearchService, mockSearchHelper, "",
+			new SearchCommitter(mockSearchService, ""), new SearchCircuitBreaker(3, 1000, 1000));
+		replayer.start();
+		try {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (spool.isActive() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+		} finally {
+			replayer.stop();
+		}
+
+		assertThat(spool.isActive()).isFalse();
+		InOrder inOrder = inOrder(mockSearchHelper);
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation1));
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation2));
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation1));
+		inOrder.verify(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(operation2));
+	}
+
+	@Test
+	public void testRecordsAreIndexedDirectlyOnceSpoolIsDrained() throws Exception {
+		createTarget(false, false);
+		IndexingSpool spool = new IndexingSpool(tempFolder.getRoot().toPath(), 1024 * 1024, 1024 * 1024);
+		spool.setMinSegmentAgeMillis(60000);
+		spool.open();
+		spool.append(Collections.singletonList(IndexingOperation.update("1", "<doc><version>1</version></doc>")));
+		target.setSpool(spool);
+
+		Map doc = new HashMap<>();
+		Record record = mock(Record.class);
+		when(mockSearchHelper.getDocFromKinesis(record)).thenReturn(doc);
+		IndexingOperation operation = IndexingOperation.update("1", "<doc><version>2</version></doc>");
+		when(mockSearchHelper.createUpdate(anyString(), eq(doc))).thenReturn(operation);
+		IRecordProcessorCheckpointer checkpointer = mock(IRecordProcessorCheckpointer.class);
+
+		SpoolReplayer replayer = new SpoolReplayer(spool, mockSearchService, mockSearchHelper, "",
+			new SearchCommitter(mockSearchService, ""), new SearchCircuitBreaker(3, 1000, 1000));
+		replayer.start();
+		try {
+			target.processRecords(new ProcessRecordsInput().withRecords(Arrays.asList(record))
+					.withCheckpointer(checkpointer));
+		} finally {
+			replayer.stop();
+		}
+
+		// the change was not spooled, so it must have been sent after the replay
+		assertThat(spool.isActive()).isFalse();
+		ArgumentCaptor<IndexingOperation> captor = ArgumentCaptor.forClass(IndexingOperation.class);
+		verify(mockSearchHelper, times(2)).execute(eq(mockSearchService), anyString(), captor.capture());
+		assertThat(captor.getAllValues().get(0).getXml()).contains("<version>1</version>");
+		assertThat(captor.getAllValues().get(1)).isSameAs(operation);
+	}
 }
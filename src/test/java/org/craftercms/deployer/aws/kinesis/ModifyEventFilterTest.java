@@ -0,0 +1,65 @@
+package org.craftercms.deployer.aws.kinesis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ModifyEventFilterTest {
+
+	private Map<String, AttributeValue> image(String title, String views) {
+		Map<String, AttributeValue> image = new HashMap<>();
+		image.put("id", new AttributeValue("1"));
+		image.put("title", new AttributeValue(title));
+		image.put("views", new AttributeValue().withN(views));
+		return image;
+	}
+
+	private Record createRecord(String event, Map<String, AttributeValue> oldImage,
+								Map<String, AttributeValue> newImage) {
+		RecordAdapter record = mock(RecordAdapter.class);
+		when(record.getInternalObject()).thenReturn(new com.amazonaws.services.dynamodbv2.model.Record()
+				.withEventName(event)
+				.withDynamodb(new StreamRecord().withOldImage(oldImage).withNewImage(newImage)));
+		return record;
+	}
+
+	@Test
+	public void testChangesToOtherFieldsAreSkipped() throws Exception {
+		ModifyEventFilter target = new ModifyEventFilter(Arrays.asList("title", " "));
+		Record counter = createRecord("MODIFY", image("a", "1"), image("a", "2"));
+		Record title = createRecord("MODIFY", image("a", "2"), image("b", "2"));
+
+		assertThat(target.getFields()).containsExactly("title");
+		assertThat(target.filter(Arrays.asList(counter, title))).containsExactly(title);
+	}
+
+	@Test
+	public void testAllFieldsAreComparedByDefault() throws Exception {
+		ModifyEventFilter target = new ModifyEventFilter(Collections.emptyList());
+		Record counter = createRecord("MODIFY", image("a", "1"), image("a", "2"));
+		Record same = createRecord("MODIFY", image("a", "2"), image("a", "2"));
+
+		assertThat(target.filter(Arrays.asList(counter, same))).containsExactly(counter);
+	}
+
+	@Test
+	public void testOnlyModifyEventsWithBothImagesAreSkipped() throws Exception {
+		ModifyEventFilter target = new ModifyEventFilter(Collections.singletonList("title"));
+		Record insert = createRecord("INSERT", image("a", "1"), image("a", "1"));
+		Record noOldImage = createRecord("MODIFY", null, image("a", "1"));
+
+		assertThat(target.filter(Arrays.asList(insert, noOldImage))).containsExactly(insert, noOldImage);
+	}
+}
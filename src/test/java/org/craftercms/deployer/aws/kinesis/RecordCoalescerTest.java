@@ -0,0 +1,98 @@
+package org.craftercms.deployer.aws.kinesis;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.model.Record;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.craftercms.deployer.aws.utils.SearchHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordCoalescerTest {
+	private RecordCoalescer target;
+
+	@Before
+	public void setup() {
+		target = new RecordCoalescer(new SearchHelper());
+	}
+
+	private Record createRecord(String event, String id) {
+		StreamRecord streamRecord = new StreamRecord();
+		if (id != null) {
+			if (RecordCoalescer.REMOVE_EVENT.equals(event)) {
+				streamRecord.withOldImage(Collections.singletonMap("id", new AttributeValue(id)));
+			} else {
+				streamRecord.withNewImage(Collections.singletonMap("id", new AttributeValue(id)));
+			}
+		}
+		RecordAdapter record = mock(RecordAdapter.class);
+		when(record.getInternalObject()).thenReturn(new com.amazonaws.services.dynamodbv2.model.Record()
+				.withEventName(event)
+				.withDynamodb(streamRecord));
+		return record;
+	}
+
+	@Test
+	public void testLastEventForAnIdWins() throws Exception {
+		Record first = createRecord("MODIFY", "1");
+		Record second = createRecord("MODIFY", "1");
+		Record third = createRecord("MODIFY", "1");
+
+		assertThat(target.coalesce(Arrays.asList(first, second, third))).containsExactly(third);
+	}
+
+	@Test
+	public void testDifferentIdsAreKept() throws Exception {
+		Record first = createRecord("MODIFY", "1");
+		Record second = createRecord("MODIFY", "2");
+		Record third = createRecord("MODIFY", "1");
+
+		assertThat(target.coalesce(Arrays.asList(first, second, third))).containsExactly(second, third);
+	}
+
+	@Test
+	public void testRemoveAfterInsertCancelsOut() throws Exception {
+		Record insert = createRecord("INSERT", "1");
+		Record modify = createRecord("MODIFY", "1");
+		Record remove = createRecord("REMOVE", "1");
+		Record other = createRecord("INSERT", "2");
+
+		assertThat(target.coalesce(Arrays.asList(insert, other, modify, remove))).containsExactly(other);
+	}
+
+	@Test
+	public void testRemoveAfterModifyIsKept() throws Exception {
+		Record modify = createRecord("MODIFY", "1");
+		Record remove = createRecord("REMOVE", "1");
+
+		assertThat(target.coalesce(Arrays.asList(modify, remove))).containsExactly(remove);
+	}
+
+	@Test
+	public void testInsertAfterRemoveIsKept() throws Exception {
+		Record remove = createRecord("REMOVE", "1");
+		Record insert = createRecord("INSERT", "1");
+
+		assertThat(target.coalesce(Arrays.asList(remove, insert))).containsExactly(insert);
+	}
+
+	@Test
+	public void testRecordsWithoutIdAreKept() throws Exception {
+		Record first = createRecord("MODIFY", null);
+		Record second = createRecord("MODIFY", null);
+		Record other = mock(Record.class);
+
+		List<Record> result = target.coalesce(Arrays.asList(first, second, other));
+
+		assertThat(result).containsExactly(first, second, other);
+	}
+}
@@ -0,0 +1,212 @@
+package org.craftercms.deployer.aws.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.craftercms.deployer.aws.utils.BulkIndexingSink;
+import org.craftercms.deployer.aws.utils.IndexingOperation;
+import org.craftercms.deployer.aws.utils.SearchCircuitBreaker;
+import org.craftercms.deployer.aws.utils.SearchHelper;
+import org.craftercms.search.exception.SearchServerException;
+import org.craftercms.search.service.SearchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class DynamoIndexingProcessorTest {
+
+	private static final String TABLE = "table1";
+	private static final int SEGMENTS = 4;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private DynamoIndexingProcessor target;
+	private AmazonDynamoDB mockClient;
+	private SearchHelper mockSearchHelper;
+	private ScanProgress progress;
+	private ExecutorService executor;
+	private List<ScanRequest> requests = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setup() throws Exception {
+		mockClient = mock(AmazonDynamoDB.class);
+		mockSearchHelper = mock(SearchHelper.class);
+		when(mockSearchHelper.getDocFromDynamo(anyString(), anyMap())).thenReturn(new HashMap<>());
+		when(mockSearchHelper.createUpdate(any(), anyMap())).thenReturn(IndexingOperation.update("1", "<doc/>"));
+
+		target = new DynamoIndexingProcessor();
+		target.searchService = mock(SearchService.class);
+		target.searchHelper = mockSearchHelper;
+		target.circuitBreaker = new SearchCircuitBreaker(1000, 10, 10);
+		target.scanSegments = SEGMENTS;
+		target.bulkMaxDocuments = 10;
+		target.bulkMaxBytes = 1024 * 1024;
+
+		progress = new ScanProgress(tempFolder.getRoot().toPath(), "site", 0);
+		progress.start(TABLE, SEGMENTS);
+		executor = Executors.newFixedThreadPool(SEGMENTS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private void mockScan(final int failingSegment) {
+		when(mockClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+			ScanRequest request = invocation.getArgument(0);
+			requests.add(request);
+			if (request.getSegment() == failingSegment) {
+				throw new IllegalStateException("scan failed");
+			}
+			Map<String, AttributeValue> item =
+				Collections.singletonMap("id", new AttributeValue().withN(String.valueOf(request.getSegment())));
+			return new ScanResult().withItems(Collections.singletonList(item)).withCount(1);
+		});
+	}
+
+	@Test
+	public void testEachSegmentIsScannedOnce() throws Exception {
+		mockScan(-1);
+
+		TableScan scan = target.scheduleTable(mockClient, TABLE, executor, progress);
+		scan.await();
+
+		assertThat(scan.isSuccessful()).isTrue();
+		assertThat(scan.getItems()).isEqualTo((long) SEGMENTS);
+		assertThat(requests).hasSize(SEGMENTS);
+		Integer[] segments = requests.stream().map(ScanRequest::getSegment).toArray(Integer[]::new);
+		assertThat(segments).containsExactlyInAnyOrder(0, 1, 2, 3);
+		for (ScanRequest request : requests) {
+			assertThat(request.getTotalSegments()).isEqualTo(SEGMENTS);
+		}
+		for (int i = 0; i < SEGMENTS; i++) {
+			assertThat(progress.isCompleted(TABLE, i)).isTrue();
+		}
+	}
+
+	@Test
+	public void testFailedSegmentDoesNotStopTheOthers() throws Exception {
+		mockScan(2);
+
+		TableScan scan = target.scheduleTable(mockClient, TABLE, executor, progress);
+		scan.await();
+
+		assertThat(scan.isSuccessful()).isFalse();
+		assertThat(scan.getFailure().getMessage()).isEqualTo("scan failed");
+		assertThat(scan.getItems()).isEqualTo((long) SEGMENTS - 1);
+		assertThat(progress.isCompleted(TABLE, 2)).isFalse();
+		assertThat(progress.getStartKey(TABLE, 2)).isNull();
+	}
+
+	@Test
+	public void testInterruptedSegmentsStopRetrying() throws Exception {
+		mockScan(-1);
+		CountDownLatch retrying = new CountDownLatch(SEGMENTS * 2);
+		doAnswer(invocation -> {
+			retrying.countDown();
+			throw new SearchServerException("unavailable");
+		}).when(mockSearchHelper).execute(any(), any(), any());
+
+		TableScan scan = target.scheduleTable(mockClient, TABLE, executor, progress);
+		assertThat(retrying.await(5, TimeUnit.SECONDS)).isTrue();
+		executor.shutdownNow();
+
+		assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+		scan.await();
+		assertThat(scan.isSuccessful()).isFalse();
+		assertThat(scan.getFailure()).isInstanceOf(InterruptedException.class);
+		for (int i = 0; i < SEGMENTS; i++) {
+			assertThat(progress.isCompleted(TABLE, i)).isFalse();
+		}
+	}
+
+	@Test
+	public void testInterruptedSequentialScanStopsScheduling() throws Exception {
+		when(mockClient.scan(any(ScanRequest.class))).thenAnswer(invocation -> {
+			ScanRequest request = invocation.getArgument(0);
+			requests.add(request);
+			if (request.getSegment() == 1) {
+				Thread.currentThread().interrupt();
+			}
+			Map<String, AttributeValue> item =
+				Collections.singletonMap("id", new AttributeValue().withN(String.valueOf(request.getSegment())));
+			return new ScanResult().withItems(Collections.singletonList(item)).withCount(1);
+		});
+
+		try {
+			target.scheduleTable(mockClient, TABLE, null, progress);
+			fail("Exception expected");
+		} catch (InterruptedException e) {
+			// expected
+		}
+
+		assertThat(Thread.currentThread().isInterrupted()).isFalse();
+		assertThat(requests).hasSize(2);
+		assertThat(progress.isCompleted(TABLE, 0)).isTrue();
+		assertThat(progress.isCompleted(TABLE, 1)).isFalse();
+	}
+
+	@Test
+	public void testFailedItemsAreSentAgainOnlyAfterBackoff() throws Exception {
+		AtomicInteger sent = new AtomicInteger();
+		List<Integer> sentBeforeRetry = new ArrayList<>();
+		doAnswer(invocation -> {
+			sent.incrementAndGet();
+			throw new SearchServerException("unavailable");
+		}).when(mockSearchHelper).execute(any(), any(), any());
+		SearchCircuitBreaker circuitBreaker = new SearchCircuitBreaker(1000, 10, 10) {
+			@Override
+			public void awaitRetry(int attempt) {
+				sentBeforeRetry.add(sent.get());
+				if (attempt == 1) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		target.circuitBreaker = circuitBreaker;
+		BulkIndexingSink<Map> sink = new BulkIndexingSink<>(target.searchService, mockSearchHelper, "site", 1, 1024);
+		sink.setCircuitBreaker(circuitBreaker);
+		for (int i = 0; i < 3; i++) {
+			sink.add(IndexingOperation.update(String.valueOf(i), "<doc/>"), new HashMap());
+		}
+
+		try {
+			target.flush(sink);
+			fail("Exception expected");
+		} catch (InterruptedException e) {
+			// expected
+		}
+
+		// a single request reaches the unavailable server on each attempt
+		assertThat(sentBeforeRetry).containsExactly(1, 2);
+	}
+
+}
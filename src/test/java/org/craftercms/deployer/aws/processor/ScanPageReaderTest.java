@@ -0,0 +1,117 @@
+package org.craftercms.deployer.aws.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.deployer.aws.utils.DaemonThreadFactory;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+public class ScanPageReaderTest {
+
+	private static final int PAGES = 5;
+
+	private List<String> requested = Collections.synchronizedList(new ArrayList<>());
+
+	private ScanResult fetch(Map<String, AttributeValue> startKey) {
+		int page = startKey == null ? 0 : Integer.parseInt(startKey.get("id").getN());
+		requested.add(String.valueOf(page));
+		ScanResult result = mock(ScanResult.class);
+		when(result.getCount()).thenReturn(page);
+		if (page + 1 < PAGES) {
+			when(result.getLastEvaluatedKey()).thenReturn(
+				Collections.singletonMap("id", new AttributeValue().withN(String.valueOf(page + 1))));
+		}
+		return result;
+	}
+
+	@Test
+	public void testPagesAreReturnedInOrderWithoutPrefetch() throws Exception {
+		try (ScanPageReader target = new ScanPageReader("test", null, 0, this::fetch)) {
+			target.start();
+			for (int i = 0; i < PAGES; i++) {
+				assertThat(target.next().getCount()).isEqualTo(i);
+				assertThat(requested).hasSize(i + 1);
+			}
+			assertThat(target.next()).isNull();
+		}
+	}
+
+	@Test
+	public void testPagesAreFetchedAheadUpToTheLimit() throws Exception {
+		CountDownLatch fetched = new CountDownLatch(2);
+		try (ScanPageReader target = new ScanPageReader("test", null, 2, key -> {
+				ScanResult result = fetch(key);
+				fetched.countDown();
+				return result;
+			})) {
+			target.start();
+			assertThat(fetched.await(5, TimeUnit.SECONDS)).isTrue();
+			Thread.sleep(100);
+			assertThat(requested).hasSize(2);
+
+			for (int i = 0; i < PAGES; i++) {
+				assertThat(target.next().getCount()).isEqualTo(i);
+			}
+			assertThat(target.next()).isNull();
+			assertThat(requested).hasSize(PAGES);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFetchFailuresAreRethrown() throws Exception {
+		try (ScanPageReader target = new ScanPageReader("test", null, 1, key -> {
+				throw new IllegalStateException("scan failed");
+			})) {
+			target.start();
+			target.next();
+		}
+	}
+
+	@Test(expected = AssertionError.class, timeout = 5000)
+	public void testFetchErrorsAreRethrown() throws Exception {
+		try (ScanPageReader target = new ScanPageReader("test", null, 1, key -> {
+				throw new AssertionError("reader died");
+			})) {
+			target.start();
+			target.next();
+		}
+	}
+
+	@Test
+	public void testReaderThreadStopsWhenClosed() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		ThreadFactory factory = new DaemonThreadFactory("test") {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = super.newThread(runnable);
+				threads.add(thread);
+				return thread;
+			}
+		};
+		ScanPageReader target = new ScanPageReader("test", null, 1, key -> {
+			Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			return fetch(key);
+		}, factory);
+		target.start();
+		target.close();
+
+		assertThat(threads).hasSize(1);
+		assertThat(threads.get(0).isDaemon()).isTrue();
+		assertThat(threads.get(0).getName()).isEqualTo("test-1");
+		assertThat(threads.get(0).isAlive()).isFalse();
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.craftercms.deployer.aws.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class ScanProgressTest {
+
+	private static final int THREADS = 8;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testProgressIsRestoredAfterRestart() throws Exception {
+		Path folder = tempFolder.getRoot().toPath();
+		ScanProgress target = new ScanProgress(folder, "site", 0);
+		target.start("table1", 2);
+		target.update("table1", 0, Collections.singletonMap("id", new AttributeValue("10")), 10);
+		target.update("table1", 1, Collections.singletonMap("id", new AttributeValue().withN("5")), 5);
+		target.update("table1", 1, null, 3);
+		AtomicInteger commits = new AtomicInteger();
+		target.save(commits::incrementAndGet);
+
+		assertThat(commits.get()).isEqualTo(1);
+
+		ScanProgress restored = new ScanProgress(folder, "site", 0);
+		restored.load();
+		restored.start("table1", 2);
+
+		assertThat(restored.isCompleted("table1", 0)).isFalse();
+		assertThat(restored.getStartKey("table1", 0).get("id").getS()).isEqualTo("10");
+		assertThat(restored.isCompleted("table1", 1)).isTrue();
+		assertThat(restored.getStartKey("table1", 1)).isNull();
+		assertThat(restored.getItemCount("table1")).isEqualTo(18L);
+	}
+
+	@Test
+	public void testProgressIsDiscardedWhenSegmentsChange() throws Exception {
+		Path folder = tempFolder.getRoot().toPath();
+		ScanProgress target = new ScanProgress(folder, "site", 0);
+		target.start("table1", 2);
+		target.update("table1", 0, Collections.singletonMap("id", new AttributeValue("10")), 10);
+		target.save(() -> { });
+
+		ScanProgress restored = new ScanProgress(folder, "site", 0);
+		restored.load();
+		restored.start("table1", 4);
+
+		assertThat(restored.getStartKey("table1", 0)).isNull();
+		assertThat(restored.getItemCount("table1")).isEqualTo(0L);
+	}
+
+	@Test
+	public void testSavesAreLimitedByInterval() throws Exception {
+		ScanProgress target = new ScanProgress(tempFolder.getRoot().toPath(), "site", 60000);
+		target.start("table1", 1);
+		AtomicInteger commits = new AtomicInteger();
+
+		assertThat(target.saveIfRequired(commits::incrementAndGet)).isTrue();
+		assertThat(target.saveIfRequired(commits::incrementAndGet)).isFalse();
+		assertThat(commits.get()).isEqualTo(1);
+
+		target.clear(Collections.singletonList("table1"));
+		assertThat(Files.exists(target.getFile())).isFalse();
+	}
+
+	@Test
+	public void testClearKeepsTheProgressOfOtherTables() throws Exception {
+		Path folder = tempFolder.getRoot().toPath();
+		ScanProgress target = new ScanProgress(folder, "site", 0);
+		target.start("table1", 1);
+		target.start("table2", 1);
+		target.update("table2", 0, Collections.singletonMap("id", new AttributeValue("7")), 7);
+		target.save(() -> { });
+
+		target.clear(Collections.singletonList("table1"));
+
+		ScanProgress restored = new ScanProgress(folder, "site", 0);
+		restored.load();
+		restored.start("table2", 1);
+		assertThat(restored.getStartKey("table2", 0).get("id").getS()).isEqualTo("7");
+		assertThat(restored.tables.containsKey("table1")).isFalse();
+	}
+
+	@Test
+	public void testConcurrentCallersSaveOnce() throws Exception {
+		ScanProgress target = new ScanProgress(tempFolder.getRoot().toPath(), "site", 60000);
+		target.start("table1", 1);
+		AtomicInteger commits = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Boolean>> saves = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				saves.add(executor.submit(() -> {
+					start.await();
+					return target.saveIfRequired(commits::incrementAndGet);
+				}));
+			}
+			start.countDown();
+			int saved = 0;
+			for (Future<Boolean> save : saves) {
+				saved += save.get() ? 1 : 0;
+			}
+
+			assertThat(saved).isEqualTo(1);
+			assertThat(commits.get()).isEqualTo(1);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
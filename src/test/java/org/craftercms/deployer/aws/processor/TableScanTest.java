@@ -0,0 +1,43 @@
+package org.craftercms.deployer.aws.processor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class TableScanTest {
+
+	@Test
+	public void testItemsOfAllSegmentsAreSummarized() throws Exception {
+		TableScan target = new TableScan("table1");
+		for (long count : new long[] { 10, 5 }) {
+			target.segmentStarted();
+			target.segmentCompleted(count);
+			target.addSegment(CompletableFuture.completedFuture(count));
+		}
+		target.await();
+
+		assertThat(target.isSuccessful()).isTrue();
+		assertThat(target.getItems()).isEqualTo(15L);
+		assertThat(target.toString()).startsWith("table1: 15 item(s)");
+	}
+
+	@Test
+	public void testFirstFailureIsKept() throws Exception {
+		TableScan target = new TableScan("table1");
+		IllegalStateException failure = new IllegalStateException("scan failed");
+		CompletableFuture<Long> failed = new CompletableFuture<>();
+		failed.completeExceptionally(failure);
+		CompletableFuture<Long> cancelled = new CompletableFuture<>();
+		cancelled.cancel(true);
+		target.addSegment(failed);
+		target.addSegment(cancelled);
+		target.await();
+
+		assertThat(target.isSuccessful()).isFalse();
+		assertThat(target.getFailure()).isSameAs(failure);
+		assertThat(target.toString()).contains("failed");
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+@SuppressWarnings("unchecked")
+public class AttributeValueConverterTest {
+
+	private AttributeValueConverter target = new AttributeValueConverter();
+
+	@Test
+	public void testItemIsConvertedInOnePass() throws Exception {
+		Map<String, AttributeValue> image = new LinkedHashMap<>();
+		image.put("id", new AttributeValue().withS("1"));
+		image.put("price", new AttributeValue().withN("10.5"));
+		image.put("active", new AttributeValue().withBOOL(true));
+		image.put("tags", new AttributeValue().withSS("a", "b"));
+		image.put("sizes", new AttributeValue().withNS("1", "2"));
+		image.put("items", new AttributeValue().withL(new AttributeValue().withS("x"), new AttributeValue().withN("3")));
+		image.put("author", new AttributeValue().withM(
+			Collections.singletonMap("name", new AttributeValue().withS("joe"))));
+		image.put("data", new AttributeValue().withB(ByteBuffer.wrap(new byte[] { 1, 2 })));
+		image.put("empty", new AttributeValue().withNULL(true));
+
+		Map<String, Object> doc = target.toDocument(image);
+
+		assertThat(doc.keySet()).containsExactly("id", "price", "active", "tags", "sizes", "items", "author", "data",
+			"empty");
+		assertThat(doc).containsEntry("id", "1").containsEntry("price", "10.5").containsEntry("active", true)
+			.containsEntry("empty", null);
+		assertThat((Set<String>) doc.get("tags")).containsExactly("a", "b");
+		assertThat((Set<String>) doc.get("sizes")).containsExactly("1", "2");
+		assertThat((List<Object>) doc.get("items")).containsExactly("x", "3");
+		assertThat((Map<String, Object>) doc.get("author")).containsEntry("name", "joe");
+		assertThat((byte[]) doc.get("data")).isEqualTo(new byte[] { 1, 2 });
+	}
+
+	@Test
+	public void testBinaryValuesAreNotConsumed() throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+
+		target.toValue(new AttributeValue().withBS(buffer));
+
+		assertThat(buffer.remaining()).isEqualTo(3);
+	}
+}
@@ -0,0 +1,124 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.exception.SearchServerException;
+import org.craftercms.search.service.SearchService;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class BulkIndexingSinkTest {
+	private SearchService mockSearchService;
+	private SearchHelper mockSearchHelper;
+
+	@Before
+	public void setup() {
+		mockSearchService = mock(SearchService.class);
+		mockSearchHelper = mock(SearchHelper.class);
+	}
+
+	@Test
+	public void testOperationsAreSentWhenBatchIsFull() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 2, 0);
+
+		target.add(IndexingOperation.update("1", "<doc/>"), "a");
+		target.add(IndexingOperation.update("2", "<doc/>"), "b");
+		verify(mockSearchHelper, never()).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+
+		target.add(IndexingOperation.delete("3"), "c");
+		verify(mockSearchHelper, times(2)).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+
+		List<BulkIndexingSink.Result<String>> results = target.flush();
+		verify(mockSearchHelper, times(3)).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+		assertThat(results).hasSize(3);
+		assertThat(results.get(0).getSource()).isEqualTo("a");
+		assertThat(results.get(2).getSource()).isEqualTo("c");
+		assertThat(results.get(2).isSuccessful()).isTrue();
+		assertThat(target.isEmpty()).isTrue();
+	}
+
+	@Test
+	public void testOperationsAreSentWhenBatchExceedsSize() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 100, 10);
+
+		target.add(IndexingOperation.update("1", "<doc/>"), "a");
+		target.add(IndexingOperation.update("2", "<doc/>"), "b");
+		verify(mockSearchHelper, times(1)).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+	}
+
+	@Test
+	public void testUnchangedDocumentsAreSkipped() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 10, 0);
+		target.setDocumentCache(new IndexedDocumentCache(16));
+
+		target.add(IndexingOperation.update("1", "<doc>a</doc>"), "a");
+		target.add(IndexingOperation.update("1", "<doc>a</doc>"), "b");
+		target.add(IndexingOperation.update("1", "<doc>b</doc>"), "c");
+		List<BulkIndexingSink.Result<String>> results = target.flush();
+
+		verify(mockSearchHelper, times(2)).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+		assertThat(results.get(0).isSkipped()).isFalse();
+		assertThat(results.get(1).isSkipped()).isTrue();
+		assertThat(results.get(1).isSuccessful()).isTrue();
+		assertThat(results.get(2).isSkipped()).isFalse();
+	}
+
+	@Test
+	public void testFailuresAreMappedToTheirSource() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 10, 0);
+		IndexingOperation invalid = IndexingOperation.update("1", "<doc/>");
+		doThrow(SearchException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(invalid));
+
+		target.add(invalid, "a");
+		target.add(IndexingOperation.update("2", "<doc/>"), "b");
+		List<BulkIndexingSink.Result<String>> results = target.flush();
+
+		assertThat(results.get(0).isSuccessful()).isFalse();
+		assertThat(results.get(0).isSearchUnavailable()).isFalse();
+		assertThat(results.get(1).isSuccessful()).isTrue();
+	}
+
+	@Test
+	public void testRemainingOperationsFailWhenSearchIsUnavailable() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 1, 0);
+		target.setCircuitBreaker(new SearchCircuitBreaker(3, 1000, 1000));
+		IndexingOperation first = IndexingOperation.update("1", "<doc/>");
+		doThrow(SearchServerException.class).when(mockSearchHelper).execute(eq(mockSearchService), anyString(), eq(first));
+
+		target.add(first, "a");
+		target.add(IndexingOperation.update("2", "<doc/>"), "b");
+		target.add(IndexingOperation.update("3", "<doc/>"), "c");
+		List<BulkIndexingSink.Result<String>> results = target.flush();
+
+		verify(mockSearchHelper, times(1)).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+		assertThat(results).hasSize(3);
+		assertThat(results.get(1).isSearchUnavailable()).isTrue();
+		assertThat(results.get(2).isSearchUnavailable()).isTrue();
+	}
+
+	@Test
+	public void testOperationsAreNotSentWhileCircuitIsOpen() throws Exception {
+		BulkIndexingSink<String> target = new BulkIndexingSink<>(mockSearchService, mockSearchHelper, "site", 10, 0);
+		SearchCircuitBreaker circuitBreaker = new SearchCircuitBreaker(1, 60000, 60000);
+		circuitBreaker.recordFailure();
+		target.setCircuitBreaker(circuitBreaker);
+
+		target.add(IndexingOperation.update("1", "<doc/>"), "a");
+		List<BulkIndexingSink.Result<String>> results = target.flush();
+
+		verify(mockSearchHelper, never()).execute(any(SearchService.class), anyString(), any(IndexingOperation.class));
+		assertThat(results.get(0).isSearchUnavailable()).isTrue();
+	}
+}
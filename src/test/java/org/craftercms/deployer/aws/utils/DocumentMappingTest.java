@@ -0,0 +1,64 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class DocumentMappingTest {
+
+	private AttributeValueConverter converter = new AttributeValueConverter();
+
+	private Map<String, AttributeValue> createImage() {
+		Map<String, AttributeValue> image = new LinkedHashMap<>();
+		image.put("id", new AttributeValue("1"));
+		image.put("title", new AttributeValue("test"));
+		image.put("views", new AttributeValue().withN("42"));
+		image.put("blob", new AttributeValue().withS("large value"));
+		return image;
+	}
+
+	@Test
+	public void testExcludedAttributesAreSkippedAndOthersMapped() throws Exception {
+		DocumentMapping mapping = new DocumentMapping(Collections.emptyList(), Collections.singletonList("blob"),
+			Collections.singletonMap("title", "title_t"),
+			Collections.singletonMap("views", DocumentMapping.FieldType.LONG));
+
+		Map<String, Object> doc = converter.toDocument(createImage(), mapping);
+
+		assertThat(doc.keySet()).containsExactly("id", "title_t", "views");
+		assertThat(doc).containsEntry("title_t", "test").containsEntry("views", 42L);
+	}
+
+	@Test
+	public void testOnlyIncludedAttributesAndIdAreIndexed() throws Exception {
+		DocumentMapping mapping = new DocumentMapping(Arrays.asList("title"), Collections.emptyList(),
+			Collections.singletonMap("id", "other"), Collections.emptyMap());
+
+		Map<String, Object> doc = converter.toDocument(createImage(), mapping);
+
+		assertThat(doc.keySet()).containsExactly("id", "title");
+		assertThat(mapping.getField("blob").isIndexed()).isFalse();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidValuesAreRejected() throws Exception {
+		DocumentMapping mapping = new DocumentMapping(Collections.emptyList(), Collections.emptyList(),
+			Collections.emptyMap(), Collections.singletonMap("title", DocumentMapping.FieldType.DOUBLE));
+
+		converter.toDocument(createImage(), mapping);
+	}
+
+	@Test
+	public void testTableNameIsResolvedFromStreamArn() throws Exception {
+		assertThat(SearchHelper.getTableName("arn:aws:dynamodb:us-west-1:123:table/books/stream/2019-01-01"))
+			.isEqualTo("books");
+		assertThat(SearchHelper.getTableName("arn:aws:kinesis:us-west-1:123:stream/events")).isNull();
+	}
+}
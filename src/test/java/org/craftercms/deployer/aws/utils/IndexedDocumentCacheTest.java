@@ -0,0 +1,78 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class IndexedDocumentCacheTest {
+
+	@Test
+	public void testOnlySameContentIsReportedAsIndexed() throws Exception {
+		IndexedDocumentCache target = new IndexedDocumentCache(1024);
+
+		assertThat(target.isIndexed(IndexingOperation.update("1", "<doc>a</doc>"))).isFalse();
+		target.indexed(IndexingOperation.update("1", "<doc>a</doc>"));
+
+		assertThat(target.isIndexed(IndexingOperation.update("1", "<doc>a</doc>"))).isTrue();
+		assertThat(target.isIndexed(IndexingOperation.update("1", "<doc>b</doc>"))).isFalse();
+		assertThat(target.isIndexed(IndexingOperation.update("2", "<doc>a</doc>"))).isFalse();
+		assertThat(target.isIndexed(IndexingOperation.delete("1"))).isFalse();
+		assertThat(target.getHits()).isEqualTo(1L);
+		assertThat(target.getMisses()).isEqualTo(4L);
+	}
+
+	@Test
+	public void testDeletesAndInvalidation() throws Exception {
+		IndexedDocumentCache target = new IndexedDocumentCache(1024);
+
+		target.indexed(IndexingOperation.delete("1"));
+		assertThat(target.isIndexed(IndexingOperation.delete("1"))).isTrue();
+
+		target.invalidate("1");
+		assertThat(target.isIndexed(IndexingOperation.delete("1"))).isFalse();
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+		// a single bucket
+		IndexedDocumentCache target = new IndexedDocumentCache(IndexedDocumentCache.WAYS);
+		for (int i = 0; i < IndexedDocumentCache.WAYS; i++) {
+			target.indexed(IndexingOperation.delete(String.valueOf(i)));
+		}
+		assertThat(target.isIndexed(IndexingOperation.delete("0"))).isTrue();
+
+		target.indexed(IndexingOperation.delete("new"));
+
+		assertThat(target.getEvictions()).isEqualTo(1L);
+		assertThat(target.isIndexed(IndexingOperation.delete("0"))).isTrue();
+		assertThat(target.isIndexed(IndexingOperation.delete("1"))).isFalse();
+		assertThat(target.isIndexed(IndexingOperation.delete("new"))).isTrue();
+	}
+
+	@Test
+	public void testCapacityIsRoundedUp() throws Exception {
+		assertThat(new IndexedDocumentCache(1000000).getCapacity()).isEqualTo(1048576);
+		assertThat(new IndexedDocumentCache(1024).getCapacity()).isEqualTo(1024);
+		assertThat(new IndexedDocumentCache(1).getCapacity()).isEqualTo(IndexedDocumentCache.WAYS);
+	}
+
+	@Test
+	public void testSharedCacheIsReplacedWhenCapacityChanges() throws Exception {
+		IndexedDocumentCache first = IndexedDocumentCache.getShared("capacity-test", 1024);
+
+		assertThat(IndexedDocumentCache.getShared("capacity-test", 1024)).isSameAs(first);
+		assertThat(IndexedDocumentCache.getShared("capacity-test", 4096).getCapacity()).isEqualTo(4096);
+	}
+
+	@Test
+	public void testClearForgetsAllDocuments() throws Exception {
+		IndexedDocumentCache target = new IndexedDocumentCache(1024);
+		target.indexed(IndexingOperation.update("1", "<doc/>"));
+		target.indexed(IndexingOperation.delete("2"));
+
+		target.clear();
+
+		assertThat(target.isIndexed(IndexingOperation.update("1", "<doc/>"))).isFalse();
+		assertThat(target.isIndexed(IndexingOperation.delete("2"))).isFalse();
+	}
+}
@@ -0,0 +1,116 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.craftercms.search.service.SearchService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+@SuppressWarnings("rawtypes")
+public class IndexingSpoolTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testSpooledOperationsAreRecoveredAfterRestart() throws Exception {
+		Path folder = tempFolder.getRoot().toPath();
+		IndexingSpool target = new IndexingSpool(folder, 1024, 1024 * 1024);
+		target.open();
+		assertThat(target.isActive()).isFalse();
+
+		assertThat(target.append(Arrays.asList(IndexingOperation.update("1", "<doc><id>1</id></doc>"),
+			IndexingOperation.delete("2")))).isTrue();
+		assertThat(target.isActive()).isTrue();
+		target.close();
+
+		IndexingSpool reopened = new IndexingSpool(folder, 1024, 1024 * 1024);
+		reopened.open();
+		assertThat(reopened.isActive()).isTrue();
+		assertThat(reopened.getTotalBytes()).isEqualTo(target.getTotalBytes());
+	}
+
+	@Test
+	public void testSpoolRejectsOperationsWhenFull() throws Exception {
+		IndexingSpool target = new IndexingSpool(tempFolder.getRoot().toPath(), 10, 10);
+		target.open();
+
+		assertThat(target.append(Collections.singletonList(IndexingOperation.delete("1")))).isTrue();
+		assertThat(target.isAvailable()).isFalse();
+		assertThat(target.append(Collections.singletonList(IndexingOperation.delete("2")))).isFalse();
+	}
+
+	@Test
+	public void testReplayerSendsOperationsInOrderAndRemovesSegment() throws Exception {
+		SearchService mockSearchService = mock(SearchService.class);
+		SearchHelper mockSearchHelper = mock(SearchHelper.class);
+		IndexingSpool spool = new IndexingSpool(tempFolder.getRoot().toPath(), 1024, 1024 * 1024);
+		spool.setMinSegmentAgeMillis(0);
+		spool.open();
+		spool.append(Arrays.asList(IndexingOperation.update("1", "<doc/>"), IndexingOperation.delete("1")));
+
+		SpoolReplayer target = new SpoolReplayer(spool, mockSearchService, mockSearchHelper, "site",
+			new SearchCommitter(mockSearchService, "site"), new SearchCircuitBreaker(3, 1000, 1000));
+		target.running = true;
+		Path segment = spool.nextSegment(0);
+		assertThat(target.replay(segment)).isTrue();
+		spool.remove(segment);
+
+		ArgumentCaptor<IndexingOperation> captor = ArgumentCaptor.forClass(IndexingOperation.class);
+		InOrder inOrder = inOrder(mockSearchHelper, mockSearchService);
+		inOrder.verify(mockSearchHelper, times(2)).execute(any(), any(), captor.capture());
+		inOrder.verify(mockSearchService).commit("site");
+		assertThat(captor.getAllValues().get(0).getType()).isEqualTo(IndexingOperation.Type.UPDATE);
+		assertThat(captor.getAllValues().get(1).getType()).isEqualTo(IndexingOperation.Type.DELETE);
+		assertThat(spool.isActive()).isFalse();
+	}
+
+	@Test
+	public void testAppendsShareSegmentUntilFull() throws Exception {
+		IndexingSpool target = new IndexingSpool(tempFolder.getRoot().toPath(), 1024, 1024 * 1024);
+		target.setMinSegmentAgeMillis(60000);
+		target.open();
+
+		assertThat(target.append(Collections.singletonList(IndexingOperation.delete("1")))).isTrue();
+		assertThat(target.nextSegment(0)).isNull();
+		assertThat(target.append(Collections.singletonList(IndexingOperation.delete("2")))).isTrue();
+		assertThat(target.nextSegment(0)).isNull();
+
+		StringBuilder xml = new StringBuilder();
+		for (int i = 0; i < 1024; i++) {
+			xml.append('x');
+		}
+		assertThat(target.append(Collections.singletonList(IndexingOperation.update("3", xml.toString())))).isTrue();
+		Path segment = target.nextSegment(0);
+		assertThat(segment).isNotNull();
+		assertThat(Files.readAllLines(segment)).hasSize(2);
+	}
+
+	@Test
+	public void testDrainCompletesCurrentSegmentAndWaitsForReplay() throws Exception {
+		IndexingSpool target = new IndexingSpool(tempFolder.getRoot().toPath(), 1024, 1024 * 1024);
+		target.setMinSegmentAgeMillis(60000);
+		target.open();
+		assertThat(target.awaitDrained(0)).isTrue();
+
+		assertThat(target.append(Collections.singletonList(IndexingOperation.delete("1")))).isTrue();
+		assertThat(target.awaitDrained(10)).isFalse();
+
+		Path segment = target.nextSegment(0);
+		assertThat(segment).isNotNull();
+		target.remove(segment);
+		assertThat(target.awaitDrained(10)).isTrue();
+	}
+}
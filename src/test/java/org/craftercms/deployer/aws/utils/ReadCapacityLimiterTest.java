@@ -0,0 +1,97 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReadCapacityLimiterTest {
+
+	private static class TestLimiter extends ReadCapacityLimiter {
+
+		long now;
+		long slept;
+
+		TestLimiter(double targetRate) {
+			super("table", targetRate);
+		}
+
+		@Override
+		protected long nanoTime() {
+			return now;
+		}
+
+		@Override
+		protected void sleep(long nanos) {
+			slept += nanos;
+			now += nanos;
+		}
+
+	}
+
+	@Test
+	public void testRequestsWaitForConsumedCapacity() throws Exception {
+		TestLimiter target = new TestLimiter(100);
+
+		double reserved = target.acquire();
+		assertThat(target.slept).isEqualTo(0L);
+
+		target.consumed(reserved, 300);
+		target.acquire();
+		// 100 units of burst, 200 units of debt at 100 units per second
+		assertThat(TimeUnit.NANOSECONDS.toMillis(target.slept)).isEqualTo(2000L);
+	}
+
+	@Test
+	public void testConcurrentSegmentsReserveCapacityBeforeSending() throws Exception {
+		TestLimiter target = new TestLimiter(100);
+
+		// four segments send their first request before any of them completes
+		for (int i = 0; i < 4; i++) {
+			assertThat(target.acquire()).isEqualTo(ReadCapacityLimiter.PAGE_CAPACITY_UNITS);
+		}
+
+		// 100 units of burst, the other three pages need 284 units at 100 units per second
+		assertThat(TimeUnit.NANOSECONDS.toMillis(target.slept)).isBetween(2840L, 2841L);
+	}
+
+	@Test
+	public void testEstimateFollowsConsumedCapacity() throws Exception {
+		TestLimiter target = new TestLimiter(100);
+
+		for (int i = 0; i < 20; i++) {
+			target.consumed(target.acquire(), 8);
+		}
+
+		assertThat(target.getEstimate()).isLessThan(10.0);
+	}
+
+	@Test
+	public void testReleasedReservationIsAvailableAgain() throws Exception {
+		TestLimiter target = new TestLimiter(200);
+
+		target.release(target.acquire());
+		target.acquire();
+
+		assertThat(target.slept).isEqualTo(0L);
+	}
+
+	@Test
+	public void testRateIsReducedWhenThrottledAndRecovers() throws Exception {
+		TestLimiter target = new TestLimiter(100);
+
+		target.throttled();
+		assertThat(target.getRate()).isEqualTo(50.0);
+		target.throttled();
+		assertThat(target.getRate()).isEqualTo(25.0);
+
+		target.acquire();
+		assertThat(target.slept).isGreaterThan(0L);
+
+		target.now += TimeUnit.SECONDS.toNanos(60);
+		target.acquire();
+		assertThat(target.getRate()).isEqualTo(100.0);
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+public class RecordDataDecoderTest {
+
+	private static final String JSON = "{\"id\":\"1\",\"title\":\"test\",\"count\":2}";
+
+	@Test
+	public void testJsonIsDecodedWithoutMovingThePosition() throws Exception {
+		RecordDataDecoder target = new RecordDataDecoder(RecordDataDecoder.Format.JSON);
+		byte[] bytes = ("xx" + JSON).getBytes(StandardCharsets.UTF_8);
+		ByteBuffer data = ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice();
+
+		Map<String, Object> doc = target.decode(data);
+
+		assertThat(doc).containsEntry("id", "1").containsEntry("title", "test").containsEntry("count", 2);
+		assertThat(data.position()).isEqualTo(0);
+	}
+
+	@Test
+	public void testJsonIsDecodedFromDirectBuffer() throws Exception {
+		RecordDataDecoder target = new RecordDataDecoder(RecordDataDecoder.Format.JSON);
+		byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer data = ByteBuffer.allocateDirect(bytes.length);
+		data.put(bytes).flip();
+
+		assertThat(target.decode(data)).containsEntry("id", "1");
+		assertThat(data.remaining()).isEqualTo(bytes.length);
+	}
+
+	@Test
+	public void testCborIsDecoded() throws Exception {
+		RecordDataDecoder target = new RecordDataDecoder(RecordDataDecoder.getFormat("cbor"));
+		byte[] bytes = new ObjectMapper(new CBORFactory()).writeValueAsBytes(new ObjectMapper().readValue(JSON, Map.class));
+
+		assertThat(target.decode(ByteBuffer.wrap(bytes))).containsEntry("id", "1").containsEntry("count", 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownFormatIsRejected() {
+		RecordDataDecoder.getFormat("avro");
+	}
+}
@@ -0,0 +1,96 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.exception.SearchServerException;
+import org.junit.Test;
+
+public class SearchCircuitBreakerTest {
+
+	@Test
+	public void testCircuitOpensAfterConsecutiveFailures() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(2, 60000, 60000);
+
+		target.recordFailure();
+		assertThat(target.allowRequest()).isTrue();
+		target.recordFailure();
+
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.OPEN);
+		assertThat(target.allowRequest()).isFalse();
+		assertThat(target.getRemainingBackoff()).isGreaterThan(0L);
+	}
+
+	@Test
+	public void testSuccessResetsFailures() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(2, 60000, 60000);
+
+		target.recordFailure();
+		target.recordSuccess();
+		target.recordFailure();
+
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testSingleProbeIsAllowedAfterBackoff() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(1, 0, 0);
+
+		target.recordFailure();
+
+		assertThat(target.allowRequest()).isTrue();
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.HALF_OPEN);
+		assertThat(target.allowRequest()).isFalse();
+
+		target.recordSuccess();
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.CLOSED);
+		assertThat(target.allowRequest()).isTrue();
+	}
+
+	@Test
+	public void testFailedProbeOpensCircuitAgain() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(1, 0, 0);
+
+		target.recordFailure();
+		assertThat(target.allowRequest()).isTrue();
+		target.recordResult(new SearchServerException("unavailable"));
+
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	public void testOtherErrorsDoNotOpenCircuit() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(1, 60000, 60000);
+
+		target.recordResult(new SearchException("invalid document"));
+
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testProbeIsReleasedWhenRequestThrowsError() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(1, 0, 0);
+
+		target.recordFailure();
+		Error error = new Error("failed");
+		try {
+			target.execute(() -> {
+				throw error;
+			});
+		} catch (Error e) {
+			assertThat(e).isSameAs(error);
+		}
+
+		assertThat(target.getState()).isEqualTo(SearchCircuitBreaker.State.HALF_OPEN);
+		assertThat(target.allowRequest()).isTrue();
+	}
+
+	@Test
+	public void testBackoffGrowsExponentiallyUpToMax() throws Exception {
+		SearchCircuitBreaker target = new SearchCircuitBreaker(1, 100, 1000);
+
+		assertThat(target.getBackoffDelay(0)).isBetween(50L, 100L);
+		assertThat(target.getBackoffDelay(2)).isBetween(200L, 400L);
+		assertThat(target.getBackoffDelay(10)).isBetween(500L, 1000L);
+	}
+}
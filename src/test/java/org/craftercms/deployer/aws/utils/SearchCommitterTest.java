@@ -0,0 +1,71 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.craftercms.search.service.SearchService;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class SearchCommitterTest {
+	private SearchService mockSearchService;
+
+	@Before
+	public void setup() {
+		mockSearchService = mock(SearchService.class);
+	}
+
+	@Test
+	public void testImmediatePolicyCommitsEveryBatch() throws Exception {
+		SearchCommitter target = new SearchCommitter(mockSearchService, "site");
+
+		assertThat(target.commitIfRequired()).isTrue();
+		target.changesIndexed(1);
+		assertThat(target.commitIfRequired()).isTrue();
+
+		verify(mockSearchService, times(2)).commit("site");
+	}
+
+	@Test
+	public void testCommitIsDeferredUntilMaxDocuments() throws Exception {
+		SearchCommitter target = new SearchCommitter(mockSearchService, "site", new CommitPolicy(10, 0, 0), null);
+
+		target.changesIndexed(5);
+		assertThat(target.commitIfRequired()).isFalse();
+		verify(mockSearchService, never()).commit(anyString());
+
+		target.changesIndexed(5);
+		assertThat(target.commitIfRequired()).isTrue();
+		verify(mockSearchService).commit("site");
+		assertThat(target.hasPendingChanges()).isFalse();
+	}
+
+	@Test
+	public void testCommitIsDeferredUntilMaxAge() throws Exception {
+		SearchCommitter target = new SearchCommitter(mockSearchService, "site", new CommitPolicy(0, 50, 0), null);
+
+		target.changesIndexed(1);
+		assertThat(target.commitIfRequired()).isFalse();
+
+		Thread.sleep(60);
+		assertThat(target.commitIfRequired()).isTrue();
+		verify(mockSearchService).commit("site");
+	}
+
+	@Test
+	public void testCommitPendingOnlyCommitsWithChanges() throws Exception {
+		SearchCommitter target = new SearchCommitter(mockSearchService, "site", new CommitPolicy(10, 0, 0), null);
+
+		target.commitPending();
+		verify(mockSearchService, never()).commit(anyString());
+
+		target.changesIndexed(1);
+		target.commitPending();
+		verify(mockSearchService).commit("site");
+	}
+}
@@ -0,0 +1,103 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.search.exception.SearchException;
+import org.craftercms.search.exception.SearchServerException;
+import org.junit.Test;
+
+public class SearchConcurrencyLimiterTest {
+
+	@Test
+	public void testLimitGrowsWhileSaturatedAndLatencyIsStable() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(1, 1, 10, 2.0, 0.5);
+
+		for (int i = 0; i < 10; i++) {
+			target.acquire();
+			target.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		}
+
+		assertThat(target.getLimit()).isGreaterThan(1);
+	}
+
+	@Test
+	public void testLimitDecreasesWhenServerIsUnavailable() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(8, 1, 10, 2.0, 0.5);
+
+		try {
+			target.execute(() -> {
+				throw new SearchServerException("unavailable");
+			});
+			fail("Exception expected");
+		} catch (SearchServerException e) {
+			// expected
+		}
+
+		assertThat(target.getLimit()).isEqualTo(4);
+		assertThat(target.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void testLimitDecreasesWhenLatencyIncreases() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(8, 1, 10, 2.0, 0.5);
+
+		target.acquire();
+		target.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		target.acquire();
+		target.release(TimeUnit.SECONDS.toNanos(1), false);
+
+		assertThat(target.getLimit()).isEqualTo(4);
+	}
+
+	@Test
+	public void testLimitIsNotBelowMinimum() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(1, 1, 10, 2.0, 0.5);
+
+		target.acquire();
+		target.release(0, true);
+
+		assertThat(target.getLimit()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRequestsRejectedByCircuitDoNotChangeLimit() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(8, 1, 10, 2.0, 0.5);
+		SearchCircuitBreaker circuitBreaker = new SearchCircuitBreaker(1, 60000, 60000);
+		circuitBreaker.recordFailure();
+
+		try {
+			target.execute(circuitBreaker, () -> fail("Request should not be sent"));
+			fail("Exception expected");
+		} catch (SearchServerException e) {
+			// expected
+		}
+
+		assertThat(target.getLimit()).isEqualTo(8);
+		assertThat(target.getInFlight()).isEqualTo(0);
+	}
+
+	@Test
+	public void testInterruptWhileWaitingDoesNotCloseCircuit() throws Exception {
+		SearchConcurrencyLimiter target = new SearchConcurrencyLimiter(1, 1, 1, 2.0, 0.5);
+		SearchCircuitBreaker circuitBreaker = new SearchCircuitBreaker(1, 0, 0);
+		circuitBreaker.recordFailure();
+		target.acquire();
+
+		Thread.currentThread().interrupt();
+		try {
+			target.execute(circuitBreaker, () -> fail("Request should not be sent"));
+			fail("Exception expected");
+		} catch (SearchException e) {
+			// expected
+		} finally {
+			Thread.interrupted();
+		}
+
+		assertThat(circuitBreaker.getState()).isEqualTo(SearchCircuitBreaker.State.OPEN);
+		assertThat(circuitBreaker.allowRequest()).isTrue();
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+public class SearchHelperTest {
+
+	private SearchHelper target = new SearchHelper();
+
+	private Record createRemove(StreamRecord streamRecord) {
+		return new Record().withEventName("REMOVE").withDynamodb(streamRecord);
+	}
+
+	@Test
+	public void testDeleteUsesOldImageWhenAvailable() throws Exception {
+		Record record = createRemove(new StreamRecord()
+			.withKeys(Collections.singletonMap("id", new AttributeValue("key")))
+			.withOldImage(Collections.singletonMap("id", new AttributeValue("image"))));
+
+		assertThat(target.createDelete("site", record).getId()).isEqualTo("image");
+	}
+
+	@Test
+	public void testDeleteUsesKeysWithoutOldImage() throws Exception {
+		Record record = createRemove(new StreamRecord()
+			.withKeys(Collections.singletonMap("id", new AttributeValue().withN("42"))));
+
+		assertThat(target.createDelete("site", record).getId()).isEqualTo("42");
+	}
+
+	@Test
+	public void testDeleteUsesMappedKeyForTable() throws Exception {
+		target.setDocumentMappings(Collections.singletonMap("table1", new DocumentMapping(Collections.emptyList(),
+			Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), "pk")));
+		Map<String, AttributeValue> keys = new LinkedHashMap<>();
+		keys.put("pk", new AttributeValue("doc-1"));
+		keys.put("sk", new AttributeValue("v1"));
+		Record record = createRemove(new StreamRecord().withKeys(keys));
+
+		assertThat(target.createDelete("site", "table1", record).getId()).isEqualTo("doc-1");
+		assertThat(target.createDelete("site", "other", record)).isNull();
+	}
+
+	@Test
+	public void testUpdateAcceptsNumericId() throws Exception {
+		Map<String, Object> doc = new LinkedHashMap<>();
+		doc.put("id", 42L);
+		doc.put("title", "test");
+
+		IndexingOperation operation = target.createUpdate("site", doc);
+
+		assertThat(operation.getId()).isEqualTo("42");
+		assertThat(operation.getXml()).doesNotContain("42");
+	}
+
+	@Test
+	public void testMappedIdKeyIsUsedForAllEvents() throws Exception {
+		target.setDocumentMappings(Collections.singletonMap("table1", new DocumentMapping(Collections.emptyList(),
+			Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap(), "pk")));
+		Map<String, AttributeValue> image = new LinkedHashMap<>();
+		image.put("pk", new AttributeValue("doc-1"));
+		image.put("id", new AttributeValue("other"));
+		Record insert = new Record().withEventName("INSERT").withDynamodb(new StreamRecord()
+			.withKeys(Collections.singletonMap("pk", new AttributeValue("doc-1"))).withNewImage(image));
+		Record remove = createRemove(new StreamRecord()
+			.withKeys(Collections.singletonMap("pk", new AttributeValue("doc-1"))));
+
+		assertThat(target.getId("table1", insert)).isEqualTo("doc-1");
+		assertThat(target.getId("table1", remove)).isEqualTo("doc-1");
+		assertThat(target.getDocFromDynamo("table1", insert).get("id")).isEqualTo("doc-1");
+	}
+
+}
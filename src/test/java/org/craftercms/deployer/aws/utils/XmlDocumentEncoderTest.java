@@ -0,0 +1,28 @@
+package org.craftercms.deployer.aws.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+public class XmlDocumentEncoderTest {
+
+	@Test
+	public void testEncodedDocumentsMatchTheMapper() throws Exception {
+		XmlMapper xmlMapper = new XmlMapper();
+		XmlDocumentEncoder target = new XmlDocumentEncoder(xmlMapper);
+
+		Map<String, Object> first = new HashMap<>();
+		first.put("title", "a longer title for the first document");
+		first.put("count", 2);
+		Map<String, Object> second = new HashMap<>();
+		second.put("title", "short");
+
+		assertThat(target.encode(first)).isEqualTo(xmlMapper.writeValueAsString(first));
+		assertThat(target.encode(second)).isEqualTo(xmlMapper.writeValueAsString(second));
+	}
+}